@@ -0,0 +1,468 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Utilities used by the factories generated by the {@code ServiceProviderProcessor}. These methods are not intended
+ * to be used directly.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class FactorySupport {
+
+    /**
+     * The system property which disables loading providers from the {@linkplain ServiceIndex service index} when set
+     * to {@code false}. The providers are then always located with a {@link ServiceLoader}.
+     */
+    public static final String REGISTRY_PROPERTY = "org.jboss.services.registry";
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final boolean REGISTRY_ENABLED = !"false".equalsIgnoreCase(System.getProperty(REGISTRY_PROPERTY));
+
+    // Creates new instances of a prototype type, the constructor is only looked up once for each type
+    private static final ClassValue<MethodHandle> INSTANTIATORS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(final Class<?> type) {
+            final MethodHandle provider = Modules.isNamed(type) ? Modules.getInstantiator(type) : null;
+            if (provider != null) {
+                return provider;
+            }
+            try {
+                final Constructor<?> constructor = type.getConstructor();
+                Modules.addReads(type);
+                return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new IllegalStateException(String.format("%s does not have an accessible public no-arg constructor", type.getName()), e);
+            }
+        }
+    };
+
+    private FactorySupport() {
+    }
+
+    /**
+     * Checks whether more than one {@code META-INF/services} registration for the service type is visible to the
+     * class loader a {@link java.util.ServiceLoader} would use. Only the registration files are located, no provider
+     * classes are loaded.
+     * <p/>
+     * If the service type is in a named module the registrations are declared in module descriptors rather than
+     * {@code META-INF/services} files, so the service is always considered overridden and the providers are resolved
+     * through the module layer.
+     *
+     * @param serviceType the service type
+     *
+     * @return {@code true} if another module registers a provider for the service, otherwise {@code false}
+     */
+    public static boolean isOverridden(final Class<?> serviceType) {
+        if (Modules.isNamed(serviceType)) {
+            return true;
+        }
+        try {
+            final Enumeration<URL> resources = getClassLoader(serviceType).getResources(SERVICES_PREFIX + serviceType.getName());
+            int count = 0;
+            while (resources.hasMoreElements()) {
+                resources.nextElement();
+                if (++count > 1) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            // Let the ServiceLoader report the error
+            return true;
+        }
+    }
+
+    /**
+     * Loads all the providers for the service type. The providers are ordered by the priority they were registered
+     * with in the {@linkplain ServiceIndex service index}.
+     * <p/>
+     * If the service index, which is read once per class loader, registers the service the providers are created from
+     * the index. The {@code META-INF/services} files of the jars and directories which contain an index are not read.
+     * Registrations in {@code META-INF/services} files elsewhere, for example in a jar built without the processor,
+     * are added to the providers of the index. The same applies to every service if the index is {@linkplain
+     * ServiceIndex#isComplete() complete}, a service the complete index does not register only has the providers of
+     * those {@code META-INF/services} files. Otherwise the providers are loaded with a {@link ServiceLoader}.
+     * <p/>
+     * If the service type is in a named module the providers are resolved through the module layer with the
+     * {@link ServiceLoader} provider stream. The provider types are sorted before any of them are instantiated and no
+     * class path scanning is done.
+     *
+     * @param serviceType the service type
+     * @param <T>         the service type
+     *
+     * @return an immutable list of the providers
+     */
+    public static <T> List<T> loadProviders(final Class<T> serviceType) {
+        final ClassLoader cl = getClassLoader(serviceType);
+        if (Modules.isNamed(serviceType)) {
+            return Modules.loadProviders(serviceType, cl, Collections.<String>emptySet(), ServiceIndex.getIndex(cl));
+        }
+        final List<String> indexed = getIndexedProviders(cl, serviceType);
+        if (indexed != null) {
+            return instantiate(cl, serviceType, indexed, Collections.<String>emptySet());
+        }
+        final List<T> providers = new ArrayList<>();
+        final Iterator<T> iterator = ServiceLoader.load(serviceType, cl).iterator();
+        try {
+            // The iterator instantiates each provider as it's iterated
+            long start = ServiceMetrics.startTimer();
+            while (iterator.hasNext()) {
+                providers.add(iterator.next());
+                ServiceMetrics.recordInstantiation(serviceType, start);
+                start = ServiceMetrics.startTimer();
+            }
+        } catch (ServiceConfigurationError e) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw e;
+        }
+        return sort(cl, serviceType, providers);
+    }
+
+    /**
+     * Loads the providers for the service type, as {@link #loadProviders(Class)} does, except for the excluded
+     * providers. Excluded providers are not instantiated. The providers are ordered by the priority they were
+     * registered with in the {@linkplain ServiceIndex service index}.
+     * <p/>
+     * If no providers are excluded this is the same as {@link #loadProviders(Class)}.
+     *
+     * @param serviceType the service type
+     * @param excluded    the binary names of the providers to exclude, {@code null} values are ignored
+     * @param <T>         the service type
+     *
+     * @return an immutable list of the providers
+     *
+     * @throws ServiceConfigurationError if a provider could not be loaded or instantiated
+     */
+    public static <T> List<T> loadProviders(final Class<T> serviceType, final String... excluded) {
+        final Set<String> exclusions = new HashSet<>();
+        for (String name : excluded) {
+            if (name != null) {
+                exclusions.add(name);
+            }
+        }
+        if (exclusions.isEmpty()) {
+            return loadProviders(serviceType);
+        }
+        final ClassLoader cl = getClassLoader(serviceType);
+        if (Modules.isNamed(serviceType)) {
+            return Modules.loadProviders(serviceType, cl, exclusions, ServiceIndex.getIndex(cl));
+        }
+        final List<String> indexed = getIndexedProviders(cl, serviceType);
+        if (indexed != null) {
+            return instantiate(cl, serviceType, indexed, exclusions);
+        }
+        final List<T> providers = instantiate(cl, serviceType, readRegistrations(cl, serviceType, null), exclusions);
+        return sort(cl, serviceType, new ArrayList<>(providers));
+    }
+
+    /**
+     * Creates an immutable list of providers. Providers which are {@code null}, because a condition of the provider
+     * was not met, are not included.
+     *
+     * @param serviceType the service type
+     * @param providers   the providers
+     * @param <T>         the service type
+     *
+     * @return an immutable list of the providers
+     */
+    @SafeVarargs
+    public static <T> List<T> asList(final Class<T> serviceType, final T... providers) {
+        final List<T> result = new ArrayList<>(providers.length);
+        for (T provider : providers) {
+            if (provider != null) {
+                result.add(provider);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Checks whether the class file of the class is visible to the class loader used to load the providers of the
+     * service. The class itself is not loaded.
+     *
+     * @param serviceType the service type
+     * @param className   the binary name of the class
+     *
+     * @return {@code true} if the class is present, otherwise {@code false}
+     */
+    public static boolean isClassPresent(final Class<?> serviceType, final String className) {
+        return getClassLoader(serviceType).getResource(className.replace('.', '/') + ".class") != null;
+    }
+
+    /**
+     * Checks whether an option is enabled with a system property. If no value is expected the option is enabled if the
+     * property is set to any value other than {@code false}.
+     *
+     * @param name     the name of the option
+     * @param expected the value the option must have or {@code null} if any value other than {@code false} enables
+     *                 the option
+     *
+     * @return {@code true} if the option is enabled, otherwise {@code false}
+     */
+    public static boolean isOptionEnabled(final String name, final String expected) {
+        final String value = System.getProperty(name);
+        if (expected == null) {
+            return value != null && !"false".equalsIgnoreCase(value);
+        }
+        return expected.equals(value);
+    }
+
+    /**
+     * Returns the provider name if the condition of the provider was not met.
+     *
+     * @param matches  whether the condition of the provider was met
+     * @param provider the binary name of the provider
+     *
+     * @return the provider name to exclude or {@code null} if the provider should not be excluded
+     *
+     * @see #loadProviders(Class, String...)
+     */
+    public static String unless(final boolean matches, final String provider) {
+        return matches ? null : provider;
+    }
+
+    /**
+     * Decorates each provider.
+     *
+     * @param providers the providers to decorate
+     * @param decorator the decorator
+     * @param <T>       the service type
+     *
+     * @return an immutable list of the decorated providers
+     */
+    public static <T> List<T> decorate(final List<T> providers, final Decorator<T> decorator) {
+        final List<T> result = new ArrayList<>(providers.size());
+        for (T provider : providers) {
+            result.add(decorator.decorate(provider));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Creates a new instance of the same type as the prototype. This is used for scoped services which are not wired
+     * directly.
+     * <p/>
+     * A prototype in a named module is created with the {@link ServiceLoader} provider it was loaded with, the package
+     * of the provider does not need to be exported. Otherwise the public no-arg constructor is used. The constructor
+     * is only looked up the first time an instance of a type is created.
+     *
+     * @param serviceType the service type
+     * @param prototype   the provider to create a new instance of
+     * @param <T>         the service type
+     *
+     * @return the new instance
+     *
+     * @throws IllegalStateException if there is no prototype or the instance could not be created
+     */
+    public static <T> T newInstance(final Class<T> serviceType, final T prototype) {
+        if (prototype == null) {
+            throw new IllegalStateException(String.format("No provider found for %s", serviceType.getName()));
+        }
+        final Class<?> type = prototype.getClass();
+        final long start = ServiceMetrics.startTimer();
+        final Object instance;
+        try {
+            instance = INSTANTIATORS.get(type).invokeExact();
+        } catch (Throwable t) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw new IllegalStateException(String.format("Could not create a new instance of %s", type.getName()), t);
+        }
+        ServiceMetrics.recordInstantiation(serviceType, start);
+        return serviceType.cast(instance);
+    }
+
+    /**
+     * Creates a thread local which creates a new instance for each thread.
+     *
+     * @param instantiator the instantiator used to create the instances
+     * @param <T>          the service type
+     *
+     * @return the thread local
+     */
+    public static <T> ThreadLocal<T> threadLocal(final Instantiator<T> instantiator) {
+        return new ThreadLocal<T>() {
+            @Override
+            protected T initialValue() {
+                return instantiator.newInstance();
+            }
+        };
+    }
+
+    /**
+     * Removes the instance from the thread local if it is the instance associated with the current thread.
+     *
+     * @param threadLocal the thread local
+     * @param instance    the instance being released
+     * @param <T>         the service type
+     */
+    public static <T> void release(final ThreadLocal<T> threadLocal, final T instance) {
+        if (threadLocal.get() == instance) {
+            threadLocal.remove();
+        }
+    }
+
+    /**
+     * Records a lookup of an instance from the factory of the service type if {@linkplain ServiceMetrics metrics}
+     * are enabled.
+     *
+     * @param serviceType the service type
+     */
+    public static void recordLookup(final Class<?> serviceType) {
+        ServiceMetrics.recordLookup(serviceType);
+    }
+
+    /**
+     * Returns the providers registered for the service in the index, combined with the registrations of the {@code
+     * META-INF/services} files the index does not describe, or {@code null} if the providers must be located with a
+     * {@link ServiceLoader}.
+     */
+    private static List<String> getIndexedProviders(final ClassLoader cl, final Class<?> serviceType) {
+        if (!REGISTRY_ENABLED) {
+            return null;
+        }
+        final ServiceIndex index = ServiceIndex.getIndex(cl);
+        final List<String> indexed = index.getImplementations(serviceType);
+        // A complete index only describes the merged jars, registrations outside of it are still added
+        if (indexed.isEmpty() && !index.isComplete()) {
+            return null;
+        }
+        final Set<String> unindexed = readRegistrations(cl, serviceType, index);
+        if (unindexed.isEmpty() || indexed.containsAll(unindexed)) {
+            return indexed;
+        }
+        final Set<String> names = new LinkedHashSet<>(indexed);
+        names.addAll(unindexed);
+        final List<String> result = new ArrayList<>(names);
+        final String serviceName = serviceType.getName();
+        // Registrations outside the index have the default priority, the sort is stable so the order is retained
+        Collections.sort(result, new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return Integer.compare(index.getPriority(serviceName, o2), index.getPriority(serviceName, o1));
+            }
+        });
+        return result;
+    }
+
+    private static <T> List<T> instantiate(final ClassLoader cl, final Class<T> serviceType, final Collection<String> names, final Set<String> exclusions) {
+        final List<T> providers = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (exclusions.contains(name)) {
+                continue;
+            }
+            final long start = ServiceMetrics.startTimer();
+            try {
+                final Class<? extends T> type = Class.forName(name, false, cl).asSubclass(serviceType);
+                providers.add(type.getConstructor().newInstance());
+                ServiceMetrics.recordInstantiation(serviceType, start);
+            } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+                ServiceMetrics.recordFailure(serviceType);
+                throw new ServiceConfigurationError(String.format("%s: Provider %s could not be instantiated", serviceType.getName(), name), e);
+            }
+        }
+        return Collections.unmodifiableList(providers);
+    }
+
+    private static <T> List<T> sort(final ClassLoader cl, final Class<T> serviceType, final List<T> providers) {
+        if (providers.size() > 1) {
+            final ServiceIndex index = ServiceIndex.getIndex(cl);
+            final String serviceName = serviceType.getName();
+            // The sort is stable so the class path order is retained for equal priorities
+            Collections.sort(providers, new Comparator<T>() {
+                @Override
+                public int compare(final T o1, final T o2) {
+                    return Integer.compare(index.getPriority(serviceName, o2.getClass().getName()),
+                            index.getPriority(serviceName, o1.getClass().getName()));
+                }
+            });
+        }
+        return Collections.unmodifiableList(providers);
+    }
+
+    /**
+     * Reads the provider names from the {@code META-INF/services} files of the service type, in class path order. Files
+     * described by the index are skipped.
+     */
+    private static Set<String> readRegistrations(final ClassLoader cl, final Class<?> serviceType, final ServiceIndex index) {
+        final Set<String> result = new LinkedHashSet<>();
+        final String name = SERVICES_PREFIX + serviceType.getName();
+        try {
+            final Enumeration<URL> resources = cl.getResources(name);
+            while (resources.hasMoreElements()) {
+                final URL url = resources.nextElement();
+                if (index != null && index.isIndexed(url, serviceType.getName())) {
+                    continue;
+                }
+                try (InputStream in = url.openStream()) {
+                    final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final int comment = line.indexOf('#');
+                        if (comment >= 0) {
+                            line = line.substring(0, comment);
+                        }
+                        line = line.trim();
+                        if (!line.isEmpty()) {
+                            result.add(line);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ServiceConfigurationError(String.format("%s: Error reading configuration file", serviceType.getName()), e);
+        }
+        return result;
+    }
+
+    private static ClassLoader getClassLoader(final Class<?> serviceType) {
+        ClassLoader result = Thread.currentThread().getContextClassLoader();
+        if (result == null) {
+            result = serviceType.getClassLoader();
+            if (result == null) {
+                result = ClassLoader.getSystemClassLoader();
+            }
+        }
+        return result;
+    }
+}
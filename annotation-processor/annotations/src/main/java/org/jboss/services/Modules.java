@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Support for services in named modules. The module APIs are not available on the minimum supported Java version so
+ * they are invoked with method handles. On Java 8 every type is treated as being in an unnamed module.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class Modules {
+
+    private static final MethodHandle GET_MODULE;
+    private static final MethodHandle IS_NAMED;
+    private static final MethodHandle ADD_READS;
+    private static final MethodHandle ADD_USES;
+    private static final MethodHandle STREAM;
+    private static final MethodHandle PROVIDER_TYPE;
+    private static final MethodHandle PROVIDER_GET;
+
+    // The ServiceLoader.Provider of each provider type, new instances are created through it
+    private static final ClassValue<AtomicReference<Object>> PROVIDERS = new ClassValue<AtomicReference<Object>>() {
+        @Override
+        protected AtomicReference<Object> computeValue(final Class<?> type) {
+            return new AtomicReference<>();
+        }
+    };
+
+    static {
+        MethodHandle getModule = null;
+        MethodHandle isNamed = null;
+        MethodHandle addReads = null;
+        MethodHandle addUses = null;
+        MethodHandle stream = null;
+        MethodHandle providerType = null;
+        MethodHandle providerGet = null;
+        try {
+            // Module.addReads() and Module.addUses() are caller sensitive and may only be invoked for this module
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final Class<?> moduleType = Class.forName("java.lang.Module");
+            final Class<?> providerClass = Class.forName("java.util.ServiceLoader$Provider");
+            getModule = lookup.findVirtual(Class.class, "getModule", MethodType.methodType(moduleType))
+                    .asType(MethodType.methodType(Object.class, Class.class));
+            isNamed = lookup.findVirtual(moduleType, "isNamed", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            addReads = lookup.findVirtual(moduleType, "addReads", MethodType.methodType(moduleType, moduleType))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            addUses = lookup.findVirtual(moduleType, "addUses", MethodType.methodType(moduleType, Class.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Class.class));
+            stream = lookup.findVirtual(ServiceLoader.class, "stream", MethodType.methodType(Stream.class));
+            providerType = lookup.findVirtual(providerClass, "type", MethodType.methodType(Class.class))
+                    .asType(MethodType.methodType(Class.class, Object.class));
+            providerGet = lookup.findVirtual(providerClass, "get", MethodType.methodType(Object.class))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ignore) {
+            // Java 8, there are no modules
+            getModule = null;
+        }
+        GET_MODULE = getModule;
+        IS_NAMED = isNamed;
+        ADD_READS = addReads;
+        ADD_USES = addUses;
+        STREAM = stream;
+        PROVIDER_TYPE = providerType;
+        PROVIDER_GET = providerGet;
+    }
+
+    private Modules() {
+    }
+
+    /**
+     * Checks whether the type is in a named module.
+     *
+     * @param type the type to check
+     *
+     * @return {@code true} if the type is in a named module, otherwise {@code false}
+     */
+    static boolean isNamed(final Class<?> type) {
+        if (GET_MODULE == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_NAMED.invokeExact(getModule(type));
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Makes this module read the module of the target type. This is required before the public members of the target
+     * can be accessed with method handles from this module.
+     *
+     * @param target the type in the module to read
+     */
+    static void addReads(final Class<?> target) {
+        if (GET_MODULE != null) {
+            try {
+                final Object ignore = ADD_READS.invokeExact(getModule(Modules.class), getModule(target));
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    /**
+     * Loads the providers of a service in a named module with the {@link ServiceLoader} provider stream. The provider
+     * types are loaded first, excluded providers are dropped and the remaining providers are sorted by priority
+     * before any provider is instantiated, so excluded providers are never instantiated.
+     *
+     * @param serviceType the service type
+     * @param cl          the class loader used to locate the providers
+     * @param exclusions  the binary names of the providers to exclude
+     * @param index       the index used to sort the providers
+     * @param <T>         the service type
+     *
+     * @return an immutable list of the providers
+     */
+    static <T> List<T> loadProviders(final Class<T> serviceType, final ClassLoader cl, final Set<String> exclusions, final ServiceIndex index) {
+        try {
+            // This module must declare that it uses the service before the service loader is created
+            final Object ignore = ADD_USES.invokeExact(getModule(Modules.class), serviceType);
+            final Stream<?> stream = (Stream<?>) STREAM.invokeExact(ServiceLoader.load(serviceType, cl));
+            final List<Object> providers = new ArrayList<>();
+            final List<String> names = new ArrayList<>();
+            final Iterator<?> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                final Object provider = iterator.next();
+                final Class<?> type = (Class<?>) PROVIDER_TYPE.invokeExact(provider);
+                final String name = type.getName();
+                PROVIDERS.get(type).set(provider);
+                if (!exclusions.contains(name)) {
+                    providers.add(provider);
+                    names.add(name);
+                }
+            }
+            final Integer[] order = new Integer[providers.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final String serviceName = serviceType.getName();
+            // The sort is stable so the module path order is retained for equal priorities
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer o1, final Integer o2) {
+                    return Integer.compare(index.getPriority(serviceName, names.get(o2)), index.getPriority(serviceName, names.get(o1)));
+                }
+            });
+            final List<T> result = new ArrayList<>(order.length);
+            for (Integer i : order) {
+                final long start = ServiceMetrics.startTimer();
+                result.add(serviceType.cast(PROVIDER_GET.invokeExact(providers.get(i))));
+                ServiceMetrics.recordInstantiation(serviceType, start);
+            }
+            return Collections.unmodifiableList(result);
+        } catch (RuntimeException | Error e) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw e;
+        } catch (Throwable t) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw new ServiceConfigurationError(String.format("%s: Could not load the providers", serviceType.getName()), t);
+        }
+    }
+
+    /**
+     * Returns a method handle which creates a new instance of a provider type with the {@link ServiceLoader} provider
+     * it was loaded with. The provider has access to the provider type even if its package is not exported to this
+     * module. The handle has a type of {@code ()Object}.
+     *
+     * @param type the provider type
+     *
+     * @return the method handle or {@code null} if the type was not loaded by {@link #loadProviders(Class,
+     * ClassLoader, Set, ServiceIndex)}
+     */
+    static MethodHandle getInstantiator(final Class<?> type) {
+        if (GET_MODULE == null) {
+            return null;
+        }
+        final Object provider = PROVIDERS.get(type).get();
+        return provider == null ? null : PROVIDER_GET.bindTo(provider);
+    }
+
+    private static Object getModule(final Class<?> type) throws Throwable {
+        return GET_MODULE.invokeExact(type);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+/**
+ * A listener notified when the provider of a mutable {@link ServiceHolder} is replaced.
+ *
+ * @param <T> the service type
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public interface ProviderListener<T> {
+
+    /**
+     * Invoked after the provider has been replaced. Lookups made after the replacement already return the new
+     * provider.
+     *
+     * @param previous    the provider which was replaced or {@code null} if there was no provider
+     * @param replacement the new provider or {@code null} if there are no providers
+     */
+    void providerReplaced(T previous, T replacement);
+}
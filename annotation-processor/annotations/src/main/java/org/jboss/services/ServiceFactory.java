@@ -19,19 +19,87 @@
 
 package org.jboss.services;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 public class ServiceFactory {
 
+    private static final MethodType GET_INSTANCE_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType RELEASE_TYPE = MethodType.methodType(void.class, Object.class);
+    private static final MethodType GET_INSTANCE_ASYNC_TYPE = MethodType.methodType(Object.class, Executor.class);
+
+    /**
+     * The handles of a factory. The value is attached to the factory class itself so the handles live exactly as long
+     * as the factory does.
+     */
+    private static final ClassValue<FactoryHandles> FACTORY_HANDLES = new ClassValue<FactoryHandles>() {
+        @Override
+        protected FactoryHandles computeValue(final Class<?> factory) {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                // A factory in a named module is only accessible once this module reads it
+                Modules.addReads(factory);
+                final MethodHandle getInstance = lookup.unreflect(factory.getMethod("getInstance")).asType(GET_INSTANCE_TYPE);
+                // Factories generated before scopes were supported do not have a release or getAll method
+                MethodHandle release = null;
+                MethodHandle getAll = null;
+                MethodHandle getInstanceAsync = null;
+                for (Method method : factory.getMethods()) {
+                    if (!Modifier.isStatic(method.getModifiers())) {
+                        continue;
+                    }
+                    if ("release".equals(method.getName()) && method.getParameterTypes().length == 1) {
+                        release = lookup.unreflect(method).asType(RELEASE_TYPE);
+                    } else if ("getAll".equals(method.getName()) && method.getParameterTypes().length == 0) {
+                        getAll = lookup.unreflect(method).asType(GET_INSTANCE_TYPE);
+                    } else if ("getInstanceAsync".equals(method.getName()) && method.getParameterTypes().length == 1
+                            && method.getParameterTypes()[0] == Executor.class) {
+                        getInstanceAsync = lookup.unreflect(method).asType(GET_INSTANCE_ASYNC_TYPE);
+                    }
+                }
+                return new FactoryHandles(getInstance, release, getAll, getInstanceAsync);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new IllegalArgumentException(String.format("Could not find factory method getInstance() on %s", factory.getName()), e);
+            }
+        }
+    };
+
+    /**
+     * The factories resolved for a service type, keyed by the class loader used to resolve them.
+     */
+    private static final ClassValue<FactoryCache> FACTORIES = new ClassValue<FactoryCache>() {
+        @Override
+        protected FactoryCache computeValue(final Class<?> serviceType) {
+            return new FactoryCache(serviceType.getPackage().getName() + "." + serviceType.getSimpleName() + "Factory",
+                    Modules.isNamed(serviceType));
+        }
+    };
+
     /**
      * Gets an instance of a server from a factory.
      * <p/>
      * The factory name must be the name of the service with the {@code Factory} appended to the name and it must be in
      * the same package as the service.
+     * <p/>
+     * The factory is resolved once per service type and class loader. Subsequent invocations only invoke the cached
+     * {@code getInstance()} handle. If the service type is in a named module the factory is resolved from the module
+     * of the service, regardless of the thread context class loader.
      *
      * @param serviceType the type of the service to locate
      * @param <T>         the type
@@ -43,17 +111,212 @@ public class ServiceFactory {
      *                                    getInstance()} method
      */
     public static <T> T getInstance(final Class<T> serviceType) {
-        final ClassLoader cl = getClassLoader();
-        final String name = serviceType.getPackage().getName() + "." + serviceType.getSimpleName() + "Factory";
         try {
-            final MethodHandles.Lookup lookup = MethodHandles.lookup();
-            final Class<?> factory = Class.forName(name, true, cl);
-            return serviceType.cast(lookup.findStatic(factory, "getInstance", MethodType.methodType(serviceType)).invoke());
+            return serviceType.cast((Object) getHandles(serviceType).getInstance.invokeExact());
         } catch (Throwable e) {
+            ServiceMetrics.recordFailure(serviceType);
             throw new IllegalArgumentException("Could not find or invoke factory method getInstance()", e);
         }
     }
 
+    /**
+     * Gets an instance of a service from a factory without blocking the calling thread. The providers are loaded on the
+     * {@linkplain ServiceHolder#getDefaultExecutor() default executor}, a virtual thread if available.
+     *
+     * @param serviceType the type of the service to locate
+     * @param <T>         the type
+     *
+     * @return a future completed with an implementation of the service from the factory
+     *
+     * @see #getInstanceAsync(Class, Executor)
+     */
+    public static <T> CompletableFuture<T> getInstanceAsync(final Class<T> serviceType) {
+        return getInstanceAsync(serviceType, ServiceHolder.getDefaultExecutor());
+    }
+
+    /**
+     * Gets an instance of a service from a factory without blocking the calling thread.
+     * <p/>
+     * If the providers have already been loaded the returned future is already complete. Otherwise the providers are
+     * loaded on the executor. Concurrent callers share the same load and a failure is cached for the {@linkplain
+     * ServiceHolder#RETRY_DELAY_PROPERTY retry delay}, during which the future completes exceptionally without
+     * loading the providers again.
+     * <p/>
+     * Note that the instance of a {@linkplain org.jboss.services.annotation.Scope#THREAD thread} scoped service is
+     * bound to the thread which completes the future.
+     *
+     * @param serviceType the type of the service to locate
+     * @param executor    the executor used to load the providers
+     * @param <T>         the type
+     *
+     * @return a future completed with an implementation of the service from the factory
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> getInstanceAsync(final Class<T> serviceType, final Executor executor) {
+        final FactoryHandles handles;
+        try {
+            handles = getHandles(serviceType);
+        } catch (Throwable e) {
+            ServiceMetrics.recordFailure(serviceType);
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalArgumentException("Could not find factory", e));
+            return result;
+        }
+        if (handles.getInstanceAsync == null) {
+            // Factories generated before asynchronous lookups were supported
+            return CompletableFuture.supplyAsync(new Supplier<T>() {
+                @Override
+                public T get() {
+                    return getInstance(serviceType);
+                }
+            }, executor);
+        }
+        try {
+            return (CompletableFuture<T>) handles.getInstanceAsync.invokeExact(executor);
+        } catch (Throwable e) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw new IllegalArgumentException("Could not invoke factory method getInstanceAsync()", e);
+        }
+    }
+
+    /**
+     * Releases an instance retrieved from {@link #getInstance(Class)}. Depending on the {@linkplain
+     * org.jboss.services.annotation.Scope scope} of the service the instance is returned to a pool or discarded. For
+     * singleton services this is a no-op.
+     *
+     * @param serviceType the type of the service
+     * @param instance    the instance to release
+     * @param <T>         the type
+     *
+     * @throws java.lang.RuntimeException if an error occurs attempting find or invoke the factory's {@code release()}
+     *                                    method
+     */
+    public static <T> void release(final Class<T> serviceType, final T instance) {
+        final MethodHandle release;
+        try {
+            release = getHandles(serviceType).release;
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Could not find factory", e);
+        }
+        if (release != null) {
+            try {
+                release.invokeExact((Object) instance);
+            } catch (Throwable e) {
+                throw new IllegalArgumentException("Could not invoke factory method release()", e);
+            }
+        }
+    }
+
+    /**
+     * Initializes the factories of all the services registered in the {@linkplain ServiceIndex service index} using
+     * the {@linkplain ForkJoinPool#commonPool() common pool}.
+     *
+     * @return the results for each service
+     *
+     * @see #warmUp(Executor, Collection)
+     */
+    public static List<WarmUpResult> warmUp() {
+        return warmUp(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initializes the factories of all the services registered in the {@linkplain ServiceIndex service index}.
+     *
+     * @param executor the executor used to initialize the factories
+     *
+     * @return the results for each service
+     *
+     * @see #warmUp(Executor, Collection)
+     */
+    public static List<WarmUpResult> warmUp(final Executor executor) {
+        return warmUp(executor, null);
+    }
+
+    /**
+     * Initializes the factories of the services concurrently so the providers are loaded before they are first
+     * required. This method blocks until all the factories have been initialized.
+     * <p/>
+     * Factories which depend on each other could deadlock if they were initialized concurrently. The providers of
+     * generated factories are held in a {@link ServiceHolder} which detects the deadlock and fails instead of waiting.
+     * Factories which failed are initialized again, one at a time, after all the other factories have been
+     * initialized.
+     * <p/>
+     * Services without a generated factory are ignored.
+     *
+     * @param executor     the executor used to initialize the factories, for example a {@link ForkJoinPool} or an
+     *                     executor which creates a virtual thread per task
+     * @param serviceNames the binary names of the services to initialize or {@code null} to initialize all the
+     *                     services registered in the service index
+     *
+     * @return the results for each service
+     */
+    public static List<WarmUpResult> warmUp(final Executor executor, final Collection<String> serviceNames) {
+        final ClassLoader cl = getClassLoader();
+        final Collection<String> names = (serviceNames == null ? ServiceIndex.getIndex(cl).getServiceNames() : serviceNames);
+        final Map<String, CompletableFuture<WarmUpResult>> futures = new LinkedHashMap<>();
+        for (final String name : names) {
+            futures.put(name, CompletableFuture.supplyAsync(new Supplier<WarmUpResult>() {
+                @Override
+                public WarmUpResult get() {
+                    return initialize(name, cl, false);
+                }
+            }, executor));
+        }
+        final List<WarmUpResult> results = new ArrayList<>(futures.size());
+        final List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<WarmUpResult>> entry : futures.entrySet()) {
+            final WarmUpResult result = entry.getValue().join();
+            if (result != null) {
+                if (result.isSuccessful()) {
+                    results.add(result);
+                } else {
+                    failed.add(entry.getKey());
+                }
+            }
+        }
+        // Retry the failures one at a time, the factories they depend on have now been initialized
+        for (String name : failed) {
+            results.add(initialize(name, cl, true));
+        }
+        return results;
+    }
+
+    private static WarmUpResult initialize(final String serviceName, final ClassLoader cl, final boolean retry) {
+        final long start = System.nanoTime();
+        try {
+            final Class<?> serviceType = Class.forName(serviceName, false, cl);
+            final FactoryHandles handles;
+            try {
+                handles = getHandles(serviceType, cl);
+            } catch (ClassNotFoundException e) {
+                // No factory was generated for the service
+                return null;
+            }
+            // Prefer getAll() which loads the providers without creating or borrowing a scoped instance
+            final Object ignore = handles.getAll == null ? handles.getInstance.invokeExact() : handles.getAll.invokeExact();
+            return new WarmUpResult(serviceName, System.nanoTime() - start, retry, null);
+        } catch (Throwable e) {
+            return new WarmUpResult(serviceName, System.nanoTime() - start, retry, e);
+        }
+    }
+
+    private static FactoryHandles getHandles(final Class<?> serviceType) throws ClassNotFoundException {
+        return getHandles(serviceType, getClassLoader());
+    }
+
+    private static FactoryHandles getHandles(final Class<?> serviceType, final ClassLoader cl) throws ClassNotFoundException {
+        final FactoryCache cache = FACTORIES.get(serviceType);
+        // The factory is in the same package, and therefore the same module, as the service
+        final ClassLoader loader = (cache.named ? serviceType.getClassLoader() : cl);
+        final FactoryHandles handles = cache.get(loader);
+        if (handles == null) {
+            ServiceMetrics.recordCacheMiss(serviceType);
+            return cache.resolve(loader);
+        }
+        ServiceMetrics.recordCacheHit(serviceType);
+        return handles;
+    }
+
     private static ClassLoader getClassLoader() {
         ClassLoader result = Thread.currentThread().getContextClassLoader();
         if (result == null) {
@@ -61,4 +324,89 @@ public class ServiceFactory {
         }
         return result;
     }
+
+    /**
+     * A copy-on-write cache of the factory handles for a single service type.
+     * <p/>
+     * Neither the class loader nor the handles are strongly referenced. The handles are strongly reachable only from the
+     * factory class, see {@link #FACTORY_HANDLES}, which allows a deployment's class loader to be collected even if the
+     * service type was loaded by a parent class loader.
+     */
+    private static final class FactoryCache {
+        private static final Entry[] EMPTY = new Entry[0];
+
+        private final String factoryName;
+        private final boolean named;
+        private volatile Entry[] entries = EMPTY;
+
+        private FactoryCache(final String factoryName, final boolean named) {
+            this.factoryName = factoryName;
+            this.named = named;
+        }
+
+        FactoryHandles get(final ClassLoader cl) {
+            for (Entry entry : entries) {
+                if (entry.matches(cl)) {
+                    return entry.handles.get();
+                }
+            }
+            return null;
+        }
+
+        synchronized FactoryHandles resolve(final ClassLoader cl) throws ClassNotFoundException {
+            FactoryHandles result = get(cl);
+            if (result == null) {
+                final Class<?> factory = Class.forName(factoryName, true, cl);
+                result = FACTORY_HANDLES.get(factory);
+                // Copy the live entries and add the new entry
+                final Entry[] current = entries;
+                final Entry[] copy = new Entry[current.length + 1];
+                int len = 0;
+                for (Entry entry : current) {
+                    if (!entry.isStale() && !entry.matches(cl)) {
+                        copy[len++] = entry;
+                    }
+                }
+                copy[len++] = new Entry(cl, result);
+                final Entry[] newEntries = new Entry[len];
+                System.arraycopy(copy, 0, newEntries, 0, len);
+                entries = newEntries;
+            }
+            return result;
+        }
+    }
+
+    private static final class FactoryHandles {
+        final MethodHandle getInstance;
+        final MethodHandle release;
+        final MethodHandle getAll;
+        final MethodHandle getInstanceAsync;
+
+        private FactoryHandles(final MethodHandle getInstance, final MethodHandle release, final MethodHandle getAll,
+                               final MethodHandle getInstanceAsync) {
+            this.getInstance = getInstance;
+            this.release = release;
+            this.getAll = getAll;
+            this.getInstanceAsync = getInstanceAsync;
+        }
+    }
+
+    private static final class Entry extends WeakReference<ClassLoader> {
+        private final boolean bootstrap;
+        private final WeakReference<FactoryHandles> handles;
+
+        private Entry(final ClassLoader cl, final FactoryHandles handles) {
+            super(cl);
+            bootstrap = cl == null;
+            this.handles = new WeakReference<>(handles);
+        }
+
+        boolean matches(final ClassLoader cl) {
+            return cl == null ? bootstrap : get() == cl;
+        }
+
+        boolean isStale() {
+            return (get() == null && !bootstrap) || handles.get() == null;
+        }
+    }
 }
@@ -0,0 +1,631 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Lazily loads and holds the providers of a service for a generated factory.
+ * <p/>
+ * The providers are loaded by the first thread which requires them. Other threads wait for the providers to be
+ * loaded. Unlike a class initializer, waiting threads are tracked. If waiting for the providers would deadlock, because
+ * the thread loading them is itself waiting, directly or indirectly, on a holder the current thread is loading, an
+ * {@link IllegalStateException} is thrown instead of waiting. This allows factories which depend on each other to be
+ * {@linkplain ServiceFactory#warmUp(java.util.concurrent.Executor) initialized concurrently}.
+ * <p/>
+ * If loading the providers fails the failure is thrown to the caller. The failure is cached for the {@linkplain
+ * #RETRY_DELAY_PROPERTY retry delay} so a failing provider is not loaded again on every lookup. Callers within the
+ * delay receive an {@link IllegalStateException} caused by the original failure. Failures caused by a deadlock, even if
+ * the deadlock was detected while a provider was being created, are not cached. Threads which were waiting on a failed
+ * attempt receive its failure instead of loading the providers again.
+ * <p/>
+ * The providers can also be loaded {@linkplain #getProvidersAsync(Executor) asynchronously}. Concurrent callers share
+ * a single load.
+ * <p/>
+ * A {@linkplain #ServiceHolder(Class, ProviderLoader, boolean) mutable} holder allows the providers to be {@linkplain
+ * #replace(Object) replaced} or {@linkplain #reload() reloaded} after they have been loaded. The providers are held in
+ * an atomic reference so readers never lock and always see a fully constructed provider. Mutable holders are opt-in as
+ * the reference must be read on every lookup.
+ *
+ * @param <T> the service type
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class ServiceHolder<T> {
+
+    /**
+     * The system property used to configure the default time, in milliseconds, a failure to load the providers is
+     * cached for before the providers are loaded again. A value of {@code 0} disables caching failures and a negative
+     * value caches a failure forever. The default is {@code 1000}.
+     */
+    public static final String RETRY_DELAY_PROPERTY = "org.jboss.services.retryDelay";
+
+    private static final long DEFAULT_RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos(Long.getLong(RETRY_DELAY_PROPERTY, 1000L));
+
+    @SuppressWarnings("rawtypes")
+    private static final Function FIRST = new Function<List<?>, Object>() {
+        @Override
+        public Object apply(final List<?> providers) {
+            return providers.isEmpty() ? null : providers.get(0);
+        }
+    };
+
+    // Guards the owners of all holders and the threads waiting on them
+    private static final Object LOCK = new Object();
+    private static final Map<Thread, ServiceHolder<?>> WAITING = new HashMap<>();
+
+    private final Class<T> serviceType;
+    private final ProviderLoader<T> loader;
+    private final long retryDelay;
+    // Read without locking, the fields of the state are final so a non-null state is always fully visible
+    private State<T> state;
+    // Only used by mutable holders, the state field is never set for a mutable holder
+    private final AtomicReference<State<T>> current;
+    private final List<ProviderListener<T>> listeners;
+    // Guarded by LOCK
+    private Thread owner;
+    private CompletableFuture<List<T>> pending;
+    private Throwable failure;
+    private long failedAt;
+    // The number of completed attempts and the failure of the last attempt, shared with the threads waiting on it
+    private int attempts;
+    private Throwable lastFailure;
+
+    /**
+     * Creates a new holder which caches failures for the {@linkplain #RETRY_DELAY_PROPERTY default retry delay}.
+     *
+     * @param serviceType the service type
+     * @param loader      the loader used to load the providers
+     */
+    public ServiceHolder(final Class<T> serviceType, final ProviderLoader<T> loader) {
+        this(serviceType, loader, false, DEFAULT_RETRY_DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a new holder which caches failures for the {@linkplain #RETRY_DELAY_PROPERTY default retry delay}.
+     *
+     * @param serviceType the service type
+     * @param loader      the loader used to load the providers
+     * @param mutable     {@code true} if the providers can be {@linkplain #replace(Object) replaced} or {@linkplain
+     *                    #reload() reloaded}
+     */
+    public ServiceHolder(final Class<T> serviceType, final ProviderLoader<T> loader, final boolean mutable) {
+        this(serviceType, loader, mutable, DEFAULT_RETRY_DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a new holder.
+     *
+     * @param serviceType the service type
+     * @param loader      the loader used to load the providers
+     * @param retryDelay  the time a failure to load the providers is cached for, {@code 0} to not cache failures or
+     *                    a negative value to cache a failure forever
+     * @param unit        the unit of the retry delay
+     */
+    public ServiceHolder(final Class<T> serviceType, final ProviderLoader<T> loader, final long retryDelay, final TimeUnit unit) {
+        this(serviceType, loader, false, retryDelay, unit);
+    }
+
+    /**
+     * Creates a new holder.
+     *
+     * @param serviceType the service type
+     * @param loader      the loader used to load the providers
+     * @param mutable     {@code true} if the providers can be {@linkplain #replace(Object) replaced} or {@linkplain
+     *                    #reload() reloaded}
+     * @param retryDelay  the time a failure to load the providers is cached for, {@code 0} to not cache failures or
+     *                    a negative value to cache a failure forever
+     * @param unit        the unit of the retry delay
+     */
+    public ServiceHolder(final Class<T> serviceType, final ProviderLoader<T> loader, final boolean mutable,
+                         final long retryDelay, final TimeUnit unit) {
+        this.serviceType = serviceType;
+        this.loader = loader;
+        this.retryDelay = unit.toNanos(retryDelay);
+        if (mutable) {
+            current = new AtomicReference<>();
+            listeners = new CopyOnWriteArrayList<>();
+        } else {
+            current = null;
+            listeners = null;
+        }
+    }
+
+    /**
+     * Returns the provider with the highest priority, loading the providers if required.
+     *
+     * @return the provider or {@code null} if there are no providers
+     *
+     * @throws IllegalStateException if loading the providers would deadlock or the providers depend on themselves
+     */
+    public T getInstance() {
+        State<T> state = this.state;
+        if (state == null) {
+            state = getState();
+        }
+        return state.instance;
+    }
+
+    /**
+     * Returns all the providers, loading them if required.
+     *
+     * @return an immutable list of the providers ordered by priority
+     *
+     * @throws IllegalStateException if loading the providers would deadlock or the providers depend on themselves
+     */
+    public List<T> getProviders() {
+        State<T> state = this.state;
+        if (state == null) {
+            state = getState();
+        }
+        return state.providers;
+    }
+
+    /**
+     * Returns the provider with the highest priority, loading the providers on the {@linkplain
+     * #getDefaultExecutor() default executor} if required.
+     *
+     * @return a future completed with the provider or {@code null} if there are no providers
+     *
+     * @see #getProvidersAsync(Executor)
+     */
+    public CompletableFuture<T> getInstanceAsync() {
+        return getInstanceAsync(getDefaultExecutor());
+    }
+
+    /**
+     * Returns the provider with the highest priority, loading the providers on the executor if required.
+     *
+     * @param executor the executor used to load the providers
+     *
+     * @return a future completed with the provider or {@code null} if there are no providers
+     *
+     * @see #getProvidersAsync(Executor)
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> getInstanceAsync(final Executor executor) {
+        final State<T> state = loaded();
+        if (state != null) {
+            return CompletableFuture.completedFuture(state.instance);
+        }
+        return getProvidersAsync(executor).thenApply((Function<List<T>, T>) FIRST);
+    }
+
+    /**
+     * Returns all the providers, loading them on the executor if required. If the providers are already being loaded,
+     * either synchronously or asynchronously, the returned future completes once that load completes. The executor
+     * is not used if the providers have already been loaded.
+     * <p/>
+     * The future completes exceptionally if loading the providers fails or if a previous failure is still cached.
+     *
+     * @param executor the executor used to load the providers
+     *
+     * @return a future completed with an immutable list of the providers ordered by priority
+     */
+    public CompletableFuture<List<T>> getProvidersAsync(final Executor executor) {
+        State<T> state = loaded();
+        if (state != null) {
+            return CompletableFuture.completedFuture(state.providers);
+        }
+        final CompletableFuture<List<T>> future;
+        synchronized (LOCK) {
+            state = loaded();
+            if (state != null) {
+                return CompletableFuture.completedFuture(state.providers);
+            }
+            final IllegalStateException cached = getCachedFailure();
+            if (cached != null) {
+                final CompletableFuture<List<T>> result = new CompletableFuture<>();
+                result.completeExceptionally(cached);
+                return result;
+            }
+            if (pending != null) {
+                return copy(pending);
+            }
+            future = pending = new CompletableFuture<>();
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<T> providers = null;
+                    Throwable error = null;
+                    try {
+                        providers = getProviders();
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                    synchronized (LOCK) {
+                        pending = null;
+                    }
+                    if (error == null) {
+                        future.complete(providers);
+                    } else {
+                        future.completeExceptionally(error);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // The executor rejected the task
+            synchronized (LOCK) {
+                pending = null;
+            }
+            future.completeExceptionally(e);
+        }
+        return copy(future);
+    }
+
+    /**
+     * Indicates whether the providers have been loaded.
+     *
+     * @return {@code true} if the providers have been loaded, otherwise {@code false}
+     */
+    public boolean isInitialized() {
+        synchronized (LOCK) {
+            return loaded() != null;
+        }
+    }
+
+    /**
+     * Indicates whether the providers of this holder can be replaced.
+     *
+     * @return {@code true} if this holder is mutable, otherwise {@code false}
+     */
+    public boolean isMutable() {
+        return current != null;
+    }
+
+    /**
+     * Atomically replaces the provider with the highest priority. The other providers are not changed. If the
+     * providers have not yet been loaded the provider becomes the only provider. Decorators are not applied to the
+     * new provider.
+     * <p/>
+     * The {@linkplain #addListener(ProviderListener) listeners} are notified on the calling thread after the provider
+     * has been replaced.
+     *
+     * @param provider the new provider
+     *
+     * @return the provider which was replaced or {@code null} if there was no provider
+     *
+     * @throws UnsupportedOperationException if this holder is not mutable
+     */
+    public T replace(final T provider) {
+        checkMutable();
+        if (provider == null) {
+            throw new IllegalArgumentException("The provider cannot be null");
+        }
+        State<T> previous;
+        State<T> next;
+        do {
+            previous = current.get();
+            final List<T> providers;
+            if (previous == null || previous.providers.isEmpty()) {
+                providers = Collections.singletonList(provider);
+            } else {
+                final List<T> copy = new ArrayList<>(previous.providers);
+                copy.set(0, provider);
+                providers = Collections.unmodifiableList(copy);
+            }
+            next = new State<>(providers);
+        } while (!current.compareAndSet(previous, next));
+        clearFailure();
+        final T replaced = previous == null ? null : previous.instance;
+        notifyListeners(replaced, provider);
+        return replaced;
+    }
+
+    /**
+     * Loads the providers again and atomically replaces the current providers. Lookups made while the providers are
+     * loading return the current providers. If loading fails the current providers are kept.
+     * <p/>
+     * The {@linkplain #addListener(ProviderListener) listeners} are notified on the calling thread after the providers
+     * have been replaced.
+     *
+     * @return the new provider with the highest priority or {@code null} if there are no providers
+     *
+     * @throws UnsupportedOperationException if this holder is not mutable
+     */
+    public T reload() {
+        checkMutable();
+        final long start = ServiceMetrics.startTimer();
+        final State<T> next;
+        try {
+            next = new State<>(loader.loadProviders());
+        } catch (RuntimeException | Error e) {
+            ServiceMetrics.recordFailure(serviceType);
+            throw e;
+        }
+        ServiceMetrics.recordInitialization(serviceType, start);
+        final State<T> previous = current.getAndSet(next);
+        clearFailure();
+        notifyListeners(previous == null ? null : previous.instance, next.instance);
+        return next.instance;
+    }
+
+    /**
+     * Adds a listener notified when the provider is replaced.
+     *
+     * @param listener the listener to add
+     *
+     * @throws UnsupportedOperationException if this holder is not mutable
+     */
+    public void addListener(final ProviderListener<T> listener) {
+        checkMutable();
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener to remove
+     *
+     * @throws UnsupportedOperationException if this holder is not mutable
+     */
+    public void removeListener(final ProviderListener<T> listener) {
+        checkMutable();
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the service type.
+     *
+     * @return the service type
+     */
+    public Class<T> getServiceType() {
+        return serviceType;
+    }
+
+    private State<T> loaded() {
+        return current == null ? state : current.get();
+    }
+
+    private State<T> getState() {
+        final State<T> state = loaded();
+        return state == null ? load() : state;
+    }
+
+    private State<T> publish(final State<T> result) {
+        if (current == null) {
+            state = result;
+            return result;
+        }
+        // A replacement made while loading wins
+        return current.compareAndSet(null, result) ? result : current.get();
+    }
+
+    private void checkMutable() {
+        if (current == null) {
+            throw new UnsupportedOperationException(String.format("The providers of %s cannot be replaced", serviceType.getName()));
+        }
+    }
+
+    private void clearFailure() {
+        synchronized (LOCK) {
+            failure = null;
+        }
+    }
+
+    private void notifyListeners(final T previous, final T replacement) {
+        RuntimeException error = null;
+        for (ProviderListener<T> listener : listeners) {
+            try {
+                listener.providerReplaced(previous, replacement);
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private State<T> load() {
+        final Thread current = Thread.currentThread();
+        boolean interrupted = false;
+        try {
+            synchronized (LOCK) {
+                int waitedOn = -1;
+                while (loaded() == null) {
+                    final IllegalStateException cached = getCachedFailure();
+                    if (cached != null) {
+                        throw cached;
+                    }
+                    // Threads waiting on an attempt receive its failure rather than loading the providers again
+                    if (waitedOn >= 0 && attempts != waitedOn && lastFailure != null) {
+                        throw new IllegalStateException(String.format("Loading the providers of %s failed", serviceType.getName()), lastFailure);
+                    }
+                    if (owner == null) {
+                        owner = current;
+                        break;
+                    }
+                    if (owner == current) {
+                        throw new IllegalStateException(String.format("The providers of %s depend on themselves", serviceType.getName()));
+                    }
+                    checkDeadlock(current);
+                    waitedOn = attempts;
+                    WAITING.put(current, this);
+                    try {
+                        LOCK.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } finally {
+                        WAITING.remove(current);
+                    }
+                }
+                final State<T> state = loaded();
+                if (state != null) {
+                    return state;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                current.interrupt();
+            }
+        }
+        // This thread is the owner, load the providers without holding the lock
+        State<T> result = null;
+        Throwable error = null;
+        final long start = ServiceMetrics.startTimer();
+        try {
+            result = new State<>(loader.loadProviders());
+            ServiceMetrics.recordInitialization(serviceType, start);
+        } catch (RuntimeException | Error e) {
+            ServiceMetrics.recordFailure(serviceType);
+            error = e;
+            throw e;
+        } finally {
+            synchronized (LOCK) {
+                owner = null;
+                attempts++;
+                lastFailure = error;
+                if (result != null) {
+                    result = publish(result);
+                }
+                // A deadlock depends on the timing of other threads, the next attempt may succeed
+                if (error != null && retryDelay != 0L && !isDeadlock(error)) {
+                    failure = error;
+                    failedAt = System.nanoTime();
+                }
+                LOCK.notifyAll();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether the failure was caused by a deadlock. A deadlock detected while a provider is being created, for
+     * example in a provider's constructor, is wrapped by the service loader or the factory of the provider.
+     */
+    private static boolean isDeadlock(final Throwable error) {
+        Throwable cause = error;
+        while (cause != null) {
+            if (cause instanceof DeadlockException) {
+                return true;
+            }
+            final Throwable next = cause.getCause();
+            cause = (next == cause ? null : next);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the failure to throw if the last failure is still cached. Must be called while holding the lock.
+     */
+    private IllegalStateException getCachedFailure() {
+        if (failure == null) {
+            return null;
+        }
+        if (retryDelay > 0L && System.nanoTime() - failedAt >= retryDelay) {
+            failure = null;
+            return null;
+        }
+        return new IllegalStateException(String.format("Loading the providers of %s previously failed", serviceType.getName()), failure);
+    }
+
+    /**
+     * Follows the chain of owners this thread would wait on. If the chain leads back to this thread waiting would
+     * never end.
+     */
+    private void checkDeadlock(final Thread current) {
+        Thread thread = owner;
+        while (thread != null) {
+            final ServiceHolder<?> waitingOn = WAITING.get(thread);
+            if (waitingOn == null) {
+                return;
+            }
+            thread = waitingOn.owner;
+            if (thread == current) {
+                throw new DeadlockException(String.format("Waiting for thread %s to load the providers of %s would deadlock as it is waiting on thread %s",
+                        owner.getName(), serviceType.getName(), current.getName()));
+            }
+        }
+    }
+
+    /**
+     * Returns the executor used to load providers asynchronously when no executor is specified. If the JVM supports
+     * virtual threads a new virtual thread is used for each task, otherwise the {@linkplain ForkJoinPool#commonPool()
+     * common pool} is used.
+     *
+     * @return the default executor
+     */
+    public static Executor getDefaultExecutor() {
+        return DefaultExecutor.INSTANCE;
+    }
+
+    private static <T> CompletableFuture<T> copy(final CompletableFuture<T> future) {
+        // Callers must not be able to complete or cancel the shared future
+        return future.thenApply(Function.<T>identity());
+    }
+
+    private static final class DefaultExecutor {
+        static final Executor INSTANCE;
+
+        static {
+            Executor executor;
+            try {
+                // Virtual threads are not available on the minimum supported Java version
+                final MethodHandle handle = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                        MethodType.methodType(ExecutorService.class));
+                executor = (ExecutorService) handle.invokeExact();
+            } catch (Throwable ignore) {
+                executor = ForkJoinPool.commonPool();
+            }
+            INSTANCE = executor;
+        }
+    }
+
+    private static final class DeadlockException extends IllegalStateException {
+        private static final long serialVersionUID = 6403536418893224823L;
+
+        private DeadlockException(final String msg) {
+            super(msg);
+        }
+    }
+
+    private static final class State<T> {
+        final List<T> providers;
+        final T instance;
+
+        private State(final List<T> providers) {
+            this.providers = providers;
+            this.instance = providers.isEmpty() ? null : providers.get(0);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * A binary index of all the service registrations generated by the {@code ServiceProviderProcessor}.
+ * <p/>
+ * Each module contains a single {@value #RESOURCE_NAME} resource describing every service type and the
+ * implementations registered for it, including the {@linkplain org.jboss.services.annotation.ServiceProvider#priority()
+ * priority} of each implementation. The index for a class loader is read once, in bulk, and lookups do not require any
+ * further resource I/O.
+ * <p/>
+ * The index remembers the roots, the jars or directories, its resources were read from and the services each of those
+ * resources lists. The {@code META-INF/services} file of a service listed by the index in the same root is described
+ * by the index and does not need to be read. Registrations made in other {@code META-INF/services} files, for example
+ * in third-party jars or jars built without the processor, are still read and added to the providers of the index.
+ * <p/>
+ * A {@linkplain #isComplete() complete} index is a registry merged from the indexes and {@code META-INF/services}
+ * files of several modules, for example for a shaded jar. If the only index visible to a class loader is complete,
+ * a {@link java.util.ServiceLoader ServiceLoader} is not used for a service missing from the index. The index only
+ * describes the merged jars though, registrations in {@code META-INF/services} files outside of those jars are still
+ * added.
+ * <p/>
+ * The format of the resource is:
+ * <pre>
+ *     int     magic ({@code 0x53564958})
+ *     short   version
+ *     short   flags, {@code 0x1} if the index is complete (version 2 and later)
+ *     int     string count
+ *     UTF[]   strings
+ *     int     service count
+ *     entry[] services, sorted by name
+ *
+ *     entry:
+ *     int     offset of the service name in the string table
+ *     int     implementation count
+ *     impl[]  implementations, in registration order
+ *
+ *     impl:
+ *     int     offset of the implementation name in the string table
+ *     int     priority
+ * </pre>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class ServiceIndex {
+
+    /**
+     * The name of the index resource.
+     */
+    public static final String RESOURCE_NAME = "META-INF/services.idx";
+
+    private static final int MAGIC = 0x53564958;
+    private static final short VERSION = 2;
+    private static final short FLAG_COMPLETE = 0x1;
+
+    private static final ServiceIndex EMPTY = new ServiceIndex(Collections.<String, Map<String, Integer>>emptyMap(), false,
+            Collections.<String, Set<String>>emptyMap());
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private static final Map<ClassLoader, ServiceIndex> INDEXES = new WeakHashMap<>();
+
+    private final Map<String, Map<String, Integer>> registrations;
+    private final Map<String, List<String>> services;
+    private final boolean complete;
+    // The roots the index resources were read from mapped to the services listed by the resource of the root
+    private final Map<String, Set<String>> roots;
+
+    private ServiceIndex(final Map<String, Map<String, Integer>> registrations, final boolean complete,
+                         final Map<String, Set<String>> roots) {
+        this.registrations = registrations;
+        this.complete = complete;
+        this.roots = roots;
+        final Map<String, List<String>> services = new LinkedHashMap<>(registrations.size() * 2);
+        for (Map.Entry<String, Map<String, Integer>> entry : registrations.entrySet()) {
+            services.put(entry.getKey(), sort(entry.getValue()));
+        }
+        this.services = Collections.unmodifiableMap(services);
+    }
+
+    /**
+     * Returns the index of all the {@value #RESOURCE_NAME} resources visible to the class loader. The resources are
+     * only read the first time the index is requested for the class loader.
+     *
+     * @param cl the class loader to get the index for
+     *
+     * @return the index, never {@code null}
+     *
+     * @throws java.lang.IllegalStateException if the resources could not be read
+     */
+    public static ServiceIndex getIndex(final ClassLoader cl) {
+        synchronized (INDEXES) {
+            ServiceIndex result = INDEXES.get(cl);
+            if (result == null) {
+                try {
+                    result = load(cl);
+                } catch (IOException e) {
+                    throw new IllegalStateException(String.format("Could not read the service index for %s", cl), e);
+                }
+                INDEXES.put(cl, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Returns an index without any services.
+     *
+     * @return an empty index
+     */
+    public static ServiceIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Reads all the {@value #RESOURCE_NAME} resources visible to the class loader. If an implementation is registered
+     * more than once the first registration found is used. The result is only {@linkplain #isComplete() complete} if
+     * a single resource is found and that index is complete.
+     *
+     * @param cl the class loader used to locate the resources
+     *
+     * @return the index
+     *
+     * @throws IOException if an error occurs reading the resources
+     */
+    public static ServiceIndex load(final ClassLoader cl) throws IOException {
+        final Enumeration<URL> resources = (cl == null ? ClassLoader.getSystemClassLoader() : cl).getResources(RESOURCE_NAME);
+        if (!resources.hasMoreElements()) {
+            return EMPTY;
+        }
+        final Map<String, Map<String, Integer>> merged = new LinkedHashMap<>();
+        final Map<String, Set<String>> roots = new HashMap<>();
+        boolean complete = true;
+        int count = 0;
+        while (resources.hasMoreElements()) {
+            final URL url = resources.nextElement();
+            final ServiceIndex index;
+            try (InputStream in = url.openStream()) {
+                index = read(in);
+            }
+            merge(merged, index);
+            complete = complete && index.complete;
+            count++;
+            final String root = getRoot(url, RESOURCE_NAME);
+            if (root != null && !roots.containsKey(root)) {
+                roots.put(root, index.getServiceNames());
+            }
+        }
+        return new ServiceIndex(merged, complete && count == 1, Collections.unmodifiableMap(roots));
+    }
+
+    /**
+     * Reads a single index.
+     *
+     * @param in the stream to read the index from
+     *
+     * @return the index
+     *
+     * @throws IOException if the stream could not be read or is not a valid index
+     */
+    public static ServiceIndex read(final InputStream in) throws IOException {
+        // Read the index in bulk and decode it from memory
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        final byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, len);
+        }
+        final DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a valid service index");
+        }
+        final short version = data.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException(String.format("Unsupported service index version %d", version));
+        }
+        final short flags = version > 1 ? data.readShort() : 0;
+        final String[] strings = new String[data.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = data.readUTF();
+        }
+        final int serviceCount = data.readInt();
+        final Map<String, Map<String, Integer>> registrations = new LinkedHashMap<>(serviceCount * 2);
+        for (int i = 0; i < serviceCount; i++) {
+            final String serviceName = strings[data.readInt()];
+            final int implementationCount = data.readInt();
+            final Map<String, Integer> implementations = new LinkedHashMap<>(implementationCount * 2);
+            for (int j = 0; j < implementationCount; j++) {
+                final String implementation = strings[data.readInt()];
+                implementations.put(implementation, data.readInt());
+            }
+            registrations.put(serviceName, implementations);
+        }
+        return new ServiceIndex(registrations, (flags & FLAG_COMPLETE) != 0, Collections.<String, Set<String>>emptyMap());
+    }
+
+    /**
+     * Writes an index for the services.
+     *
+     * @param services the service names mapped to the names of the implementations and their priority
+     * @param out      the stream to write the index to
+     *
+     * @throws IOException if an error occurs writing the index
+     */
+    public static void write(final Map<String, ? extends Map<String, Integer>> services, final OutputStream out) throws IOException {
+        write(services, false, out);
+    }
+
+    /**
+     * Writes an index for the services.
+     *
+     * @param services the service names mapped to the names of the implementations and their priority
+     * @param complete {@code true} if the index is a merged registry of every registration in the application
+     * @param out      the stream to write the index to
+     *
+     * @throws IOException if an error occurs writing the index
+     */
+    public static void write(final Map<String, ? extends Map<String, Integer>> services, final boolean complete,
+                             final OutputStream out) throws IOException {
+        final Map<String, Integer> offsets = new LinkedHashMap<>();
+        final Map<String, List<int[]>> entries = new TreeMap<>();
+        for (Map.Entry<String, ? extends Map<String, Integer>> entry : services.entrySet()) {
+            final List<int[]> implementations = new ArrayList<>();
+            for (Map.Entry<String, Integer> implementation : entry.getValue().entrySet()) {
+                implementations.add(new int[] {intern(offsets, implementation.getKey()), implementation.getValue()});
+            }
+            entries.put(entry.getKey(), implementations);
+        }
+        // Intern the service names after the implementations
+        for (String serviceName : entries.keySet()) {
+            intern(offsets, serviceName);
+        }
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeShort(complete ? FLAG_COMPLETE : 0);
+        data.writeInt(offsets.size());
+        for (String s : offsets.keySet()) {
+            data.writeUTF(s);
+        }
+        data.writeInt(entries.size());
+        for (Map.Entry<String, List<int[]>> entry : entries.entrySet()) {
+            data.writeInt(offsets.get(entry.getKey()));
+            data.writeInt(entry.getValue().size());
+            for (int[] implementation : entry.getValue()) {
+                data.writeInt(implementation[0]);
+                data.writeInt(implementation[1]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Returns the names of the implementations registered for the service. The implementations are ordered by
+     * priority, highest first. Implementations with the same priority are in registration order.
+     *
+     * @param serviceType the service type
+     *
+     * @return the names of the implementations or an empty list if there are none
+     */
+    public List<String> getImplementations(final Class<?> serviceType) {
+        return getImplementations(serviceType.getName());
+    }
+
+    /**
+     * Returns the names of the implementations registered for the service. The implementations are ordered by
+     * priority, highest first. Implementations with the same priority are in registration order.
+     *
+     * @param serviceName the binary name of the service type
+     *
+     * @return the names of the implementations or an empty list if there are none
+     */
+    public List<String> getImplementations(final String serviceName) {
+        final List<String> result = services.get(serviceName);
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    /**
+     * Returns the priority an implementation was registered with.
+     *
+     * @param serviceName    the binary name of the service type
+     * @param implementation the binary name of the implementation
+     *
+     * @return the priority or {@code 0} if the implementation is not registered for the service
+     */
+    public int getPriority(final String serviceName, final String implementation) {
+        final Map<String, Integer> implementations = registrations.get(serviceName);
+        if (implementations != null) {
+            final Integer result = implementations.get(implementation);
+            if (result != null) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Indicates whether this index is a merged registry of every registration of the jars it was merged from. If
+     * {@code true} a service missing from the index has no providers in those jars. Registrations in {@code
+     * META-INF/services} files of other jars are not described by the index.
+     *
+     * @return {@code true} if the index is complete, otherwise {@code false}
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Checks whether the {@code META-INF/services} file of the service is described by this index. The file is
+     * described if it is in the same jar or directory as one of the {@value #RESOURCE_NAME} resources this index was
+     * loaded from and that resource lists the service.
+     *
+     * @param url         the URL of the {@code META-INF/services} file
+     * @param serviceName the binary name of the service type
+     *
+     * @return {@code true} if the registrations of the file are described by this index, otherwise {@code false}
+     */
+    public boolean isIndexed(final URL url, final String serviceName) {
+        final String root = getRoot(url, SERVICES_PREFIX + serviceName);
+        if (root == null) {
+            return false;
+        }
+        final Set<String> services = roots.get(root);
+        return services != null && services.contains(serviceName);
+    }
+
+    /**
+     * Returns the binary names of all the services in the index.
+     *
+     * @return the service names
+     */
+    public Set<String> getServiceNames() {
+        return services.keySet();
+    }
+
+    /**
+     * Returns all the registrations in the index.
+     *
+     * @return the service names mapped to the names of the implementations ordered by priority
+     */
+    public Map<String, List<String>> getServices() {
+        return services;
+    }
+
+    private static String getRoot(final URL url, final String name) {
+        final String value = url.toExternalForm();
+        return value.endsWith(name) ? value.substring(0, value.length() - name.length()) : null;
+    }
+
+    private static void merge(final Map<String, Map<String, Integer>> target, final ServiceIndex index) {
+        for (Map.Entry<String, Map<String, Integer>> entry : index.registrations.entrySet()) {
+            Map<String, Integer> implementations = target.get(entry.getKey());
+            if (implementations == null) {
+                implementations = new LinkedHashMap<>();
+                target.put(entry.getKey(), implementations);
+            }
+            for (Map.Entry<String, Integer> implementation : entry.getValue().entrySet()) {
+                if (!implementations.containsKey(implementation.getKey())) {
+                    implementations.put(implementation.getKey(), implementation.getValue());
+                }
+            }
+        }
+    }
+
+    private static List<String> sort(final Map<String, Integer> implementations) {
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(implementations.entrySet());
+        // The sort is stable so implementations with the same priority stay in registration order
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(final Map.Entry<String, Integer> o1, final Map.Entry<String, Integer> o2) {
+                return Integer.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        final String[] result = new String[entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = entries.get(i).getKey();
+        }
+        return Collections.unmodifiableList(Arrays.asList(result));
+    }
+
+    private static int intern(final Map<String, Integer> offsets, final String s) {
+        Integer result = offsets.get(s);
+        if (result == null) {
+            result = offsets.size();
+            offsets.put(s, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics for service lookups and the creation of providers.
+ * <p/>
+ * Metrics are disabled by default and are enabled by setting the {@value #ENABLED_PROPERTY} system property to {@code
+ * true} before this class is initialized. When disabled the instrumentation is removed by the JIT compiler and no
+ * metrics are recorded. When enabled the metrics are also exposed through the platform MBean server with the name
+ * {@value #OBJECT_NAME}, see {@link ServiceMetricsMXBean}.
+ * <p/>
+ * The following metrics are recorded for each service type:
+ * <ul>
+ * <li>The number of times an instance was looked up from the factory</li>
+ * <li>The number of times {@link ServiceFactory} found the factory in its cache, or had to resolve it</li>
+ * <li>The number of lookups and provider instantiations which failed</li>
+ * <li>The time taken to initialize the providers of a factory</li>
+ * <li>The time taken to instantiate each provider loaded with a {@link java.util.ServiceLoader} or created for a
+ * scoped service</li>
+ * </ul>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class ServiceMetrics {
+
+    /**
+     * The system property used to enable metrics.
+     */
+    public static final String ENABLED_PROPERTY = "org.jboss.services.metrics";
+
+    /**
+     * The name of the MBean the metrics are exposed with.
+     */
+    public static final String OBJECT_NAME = "org.jboss.services:type=ServiceMetrics";
+
+    static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+    // Metrics are keyed by the service name so no reference to the service type is retained
+    private static final ConcurrentMap<String, ContractMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private static final ClassValue<ContractMetrics> CONTRACT_METRICS = new ClassValue<ContractMetrics>() {
+        @Override
+        protected ContractMetrics computeValue(final Class<?> serviceType) {
+            final String name = serviceType.getName();
+            ContractMetrics result = METRICS.get(name);
+            if (result == null) {
+                final ContractMetrics metrics = new ContractMetrics(name);
+                result = METRICS.putIfAbsent(name, metrics);
+                if (result == null) {
+                    result = metrics;
+                }
+            }
+            return result;
+        }
+    };
+
+    static {
+        if (ENABLED) {
+            registerMBean();
+        }
+    }
+
+    private ServiceMetrics() {
+    }
+
+    /**
+     * Indicates whether metrics are recorded.
+     *
+     * @return {@code true} if metrics are enabled, otherwise {@code false}
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of each service type which has been used.
+     *
+     * @return the snapshots ordered by service name
+     */
+    public static List<Snapshot> getSnapshots() {
+        final List<Snapshot> result = new ArrayList<>(METRICS.size());
+        for (ContractMetrics metrics : METRICS.values()) {
+            result.add(metrics.snapshot());
+        }
+        Collections.sort(result, new Comparator<Snapshot>() {
+            @Override
+            public int compare(final Snapshot o1, final Snapshot o2) {
+                return o1.getServiceName().compareTo(o2.getServiceName());
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns a snapshot of the metrics for the service.
+     *
+     * @param serviceName the binary name of the service type
+     *
+     * @return the snapshot or {@code null} if no metrics have been recorded for the service
+     */
+    public static Snapshot getSnapshot(final String serviceName) {
+        final ContractMetrics metrics = METRICS.get(serviceName);
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    /**
+     * Returns a snapshot of the metrics for the service.
+     *
+     * @param serviceType the service type
+     *
+     * @return the snapshot or {@code null} if no metrics have been recorded for the service
+     */
+    public static Snapshot getSnapshot(final Class<?> serviceType) {
+        return getSnapshot(serviceType.getName());
+    }
+
+    /**
+     * Resets all the metrics.
+     */
+    public static void reset() {
+        for (ContractMetrics metrics : METRICS.values()) {
+            metrics.reset();
+        }
+    }
+
+    static long startTimer() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    static void recordLookup(final Class<?> serviceType) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).lookups.increment();
+        }
+    }
+
+    static void recordCacheHit(final Class<?> serviceType) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).cacheHits.increment();
+        }
+    }
+
+    static void recordCacheMiss(final Class<?> serviceType) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).cacheMisses.increment();
+        }
+    }
+
+    static void recordFailure(final Class<?> serviceType) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).failures.increment();
+        }
+    }
+
+    static void recordInitialization(final Class<?> serviceType, final long start) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).initialization.record(System.nanoTime() - start);
+        }
+    }
+
+    static void recordInstantiation(final Class<?> serviceType, final long start) {
+        if (ENABLED) {
+            CONTRACT_METRICS.get(serviceType).instantiation.record(System.nanoTime() - start);
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new ServiceMetricsMXBean() {
+                @Override
+                public boolean isEnabled() {
+                    return ENABLED;
+                }
+
+                @Override
+                public List<Snapshot> getSnapshots() {
+                    return ServiceMetrics.getSnapshots();
+                }
+
+                @Override
+                public Snapshot getSnapshot(final String serviceName) {
+                    return ServiceMetrics.getSnapshot(serviceName);
+                }
+
+                @Override
+                public void reset() {
+                    ServiceMetrics.reset();
+                }
+            }, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignore) {
+            // Another copy of this library has already registered its metrics
+        } catch (JMException | SecurityException e) {
+            throw new IllegalStateException(String.format("Could not register the %s MBean", OBJECT_NAME), e);
+        }
+    }
+
+    /**
+     * A point in time snapshot of the metrics of a service type.
+     */
+    public static final class Snapshot {
+        private final String serviceName;
+        private final long lookupCount;
+        private final long cacheHitCount;
+        private final long cacheMissCount;
+        private final long failureCount;
+        private final Histogram initialization;
+        private final Histogram instantiation;
+
+        private Snapshot(final String serviceName, final long lookupCount, final long cacheHitCount, final long cacheMissCount,
+                         final long failureCount, final Histogram initialization, final Histogram instantiation) {
+            this.serviceName = serviceName;
+            this.lookupCount = lookupCount;
+            this.cacheHitCount = cacheHitCount;
+            this.cacheMissCount = cacheMissCount;
+            this.failureCount = failureCount;
+            this.initialization = initialization;
+            this.instantiation = instantiation;
+        }
+
+        /**
+         * The binary name of the service type.
+         *
+         * @return the service name
+         */
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        /**
+         * The number of instances looked up from the factory of the service.
+         *
+         * @return the number of lookups
+         */
+        public long getLookupCount() {
+            return lookupCount;
+        }
+
+        /**
+         * The number of times {@link ServiceFactory} found the factory of the service in its cache.
+         *
+         * @return the number of cache hits
+         */
+        public long getCacheHitCount() {
+            return cacheHitCount;
+        }
+
+        /**
+         * The number of times {@link ServiceFactory} had to resolve the factory of the service.
+         *
+         * @return the number of cache misses
+         */
+        public long getCacheMissCount() {
+            return cacheMissCount;
+        }
+
+        /**
+         * The number of lookups or instantiations of providers which failed.
+         *
+         * @return the number of failures
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * The time taken to initialize the providers of the factory. There is one sample for each class loader the
+         * factory was initialized in.
+         *
+         * @return the initialization times
+         */
+        public Histogram getInitialization() {
+            return initialization;
+        }
+
+        /**
+         * The time taken to instantiate individual providers.
+         *
+         * @return the instantiation times
+         */
+        public Histogram getInstantiation() {
+            return instantiation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[lookups=%d, cacheHits=%d, cacheMisses=%d, failures=%d, initialization=%s, instantiation=%s]",
+                    serviceName, lookupCount, cacheHitCount, cacheMissCount, failureCount, initialization, instantiation);
+        }
+    }
+
+    /**
+     * A snapshot of a latency histogram. Samples are recorded in buckets of powers of two nanoseconds, so percentiles
+     * are the upper bound of the bucket the percentile falls in.
+     */
+    public static final class Histogram {
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Histogram(final long[] buckets, final long count, final long totalNanos, final long maxNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * The number of samples.
+         *
+         * @return the number of samples
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The sum of all the samples.
+         *
+         * @return the total time in nanoseconds
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * The largest sample.
+         *
+         * @return the maximum time in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * The mean of the samples.
+         *
+         * @return the mean time in nanoseconds
+         */
+        public long getMeanNanos() {
+            return count == 0L ? 0L : totalNanos / count;
+        }
+
+        /**
+         * The median of the samples.
+         *
+         * @return the median time in nanoseconds
+         */
+        public long getMedianNanos() {
+            return getPercentileNanos(50D);
+        }
+
+        /**
+         * The 99th percentile of the samples.
+         *
+         * @return the 99th percentile in nanoseconds
+         */
+        public long getP99Nanos() {
+            return getPercentileNanos(99D);
+        }
+
+        /**
+         * Returns the upper bound of the bucket which contains the percentile. The result is never more than the
+         * {@linkplain #getMaxNanos() maximum}.
+         *
+         * @param percentile the percentile between 0 and 100
+         *
+         * @return the percentile in nanoseconds
+         */
+        public long getPercentileNanos(final double percentile) {
+            if (percentile < 0D || percentile > 100D) {
+                throw new IllegalArgumentException(String.format("Invalid percentile %s", percentile));
+            }
+            if (count == 0L) {
+                return 0L;
+            }
+            final long target = Math.max(1L, (long) Math.ceil(count * percentile / 100D));
+            long seen = 0L;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return Math.min(maxNanos, (1L << (i + 1)) - 1L);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[count=%d, mean=%dns, median=%dns, p99=%dns, max=%dns]", count, getMeanNanos(), getMedianNanos(), getP99Nanos(), maxNanos);
+        }
+    }
+
+    private static final class ContractMetrics {
+        final String name;
+        final LongAdder lookups = new LongAdder();
+        final LongAdder cacheHits = new LongAdder();
+        final LongAdder cacheMisses = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final Recorder initialization = new Recorder();
+        final Recorder instantiation = new Recorder();
+
+        private ContractMetrics(final String name) {
+            this.name = name;
+        }
+
+        Snapshot snapshot() {
+            return new Snapshot(name, lookups.sum(), cacheHits.sum(), cacheMisses.sum(), failures.sum(), initialization.snapshot(), instantiation.snapshot());
+        }
+
+        void reset() {
+            lookups.reset();
+            cacheHits.reset();
+            cacheMisses.reset();
+            failures.reset();
+            initialization.reset();
+            instantiation.reset();
+        }
+    }
+
+    private static final class Recorder {
+        // Bucket i holds the samples in [2^i, 2^(i + 1)) nanoseconds
+        private final AtomicLongArray buckets = new AtomicLongArray(63);
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        void record(final long nanos) {
+            final long value = Math.max(1L, nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value));
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        Histogram snapshot() {
+            final long[] counts = new long[buckets.length()];
+            long count = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                count += (counts[i] = buckets.get(i));
+            }
+            return new Histogram(counts, count, total.sum(), max.get());
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0L);
+            }
+            total.reset();
+            max.reset();
+        }
+    }
+}
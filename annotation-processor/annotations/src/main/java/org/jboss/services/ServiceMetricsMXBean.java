@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.util.List;
+
+/**
+ * The management interface of the {@linkplain ServiceMetrics service metrics}. The MBean is registered with the name
+ * {@value ServiceMetrics#OBJECT_NAME} when metrics are enabled.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public interface ServiceMetricsMXBean {
+
+    /**
+     * Indicates whether metrics are recorded.
+     *
+     * @return {@code true} if metrics are enabled, otherwise {@code false}
+     */
+    boolean isEnabled();
+
+    /**
+     * Returns a snapshot of the metrics of each service type which has been used.
+     *
+     * @return the snapshots ordered by service name
+     */
+    List<ServiceMetrics.Snapshot> getSnapshots();
+
+    /**
+     * Returns a snapshot of the metrics for the service.
+     *
+     * @param serviceName the binary name of the service type
+     *
+     * @return the snapshot or {@code null} if no metrics have been recorded for the service
+     */
+    ServiceMetrics.Snapshot getSnapshot(String serviceName);
+
+    /**
+     * Resets all the metrics.
+     */
+    void reset();
+}
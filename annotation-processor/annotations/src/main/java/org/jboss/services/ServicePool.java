@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of service instances. Instances are created on demand until the maximum size is reached after which
+ * callers wait for an instance to be {@linkplain #release(Object) released}. {@link #borrow()} waits at most for the
+ * {@linkplain #BORROW_TIMEOUT_PROPERTY borrow timeout} so an instance which is never released does not block callers
+ * forever.
+ * <p>
+ * The pool tracks the instances it has handed out. Releasing an instance that was not borrowed from this pool, or
+ * releasing the same instance twice, is ignored.
+ * </p>
+ *
+ * @param <T> the service type
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ServicePool<T> {
+
+    /**
+     * The system property for the default number of milliseconds {@link #borrow()} waits for an instance to be
+     * released. A negative value waits forever. The default is {@code 30000}.
+     */
+    public static final String BORROW_TIMEOUT_PROPERTY = "org.jboss.services.borrowTimeout";
+
+    private static final long DEFAULT_BORROW_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(Long.getLong(BORROW_TIMEOUT_PROPERTY, 30000L));
+
+    private final int maxSize;
+    private final long borrowTimeout;
+    private final Instantiator<T> instantiator;
+    private final BlockingQueue<T> idle;
+    private final AtomicInteger size;
+    private final Set<T> borrowed;
+
+    /**
+     * Creates a new pool which waits for the {@linkplain #BORROW_TIMEOUT_PROPERTY default borrow timeout}.
+     *
+     * @param maxSize      the maximum number of instances to create, if less than {@code 1} the number of available
+     *                     processors is used
+     * @param instantiator the instantiator used to create new instances
+     */
+    public ServicePool(final int maxSize, final Instantiator<T> instantiator) {
+        this(maxSize, DEFAULT_BORROW_TIMEOUT, TimeUnit.NANOSECONDS, instantiator);
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxSize       the maximum number of instances to create, if less than {@code 1} the number of available
+     *                      processors is used
+     * @param borrowTimeout the maximum time {@link #borrow()} waits for an instance, a negative value waits forever
+     * @param unit          the unit of the borrow timeout
+     * @param instantiator  the instantiator used to create new instances
+     */
+    public ServicePool(final int maxSize, final long borrowTimeout, final TimeUnit unit, final Instantiator<T> instantiator) {
+        this.maxSize = maxSize < 1 ? Runtime.getRuntime().availableProcessors() : maxSize;
+        this.borrowTimeout = borrowTimeout < 0L ? -1L : unit.toNanos(borrowTimeout);
+        this.instantiator = instantiator;
+        idle = new ArrayBlockingQueue<>(this.maxSize);
+        size = new AtomicInteger();
+        borrowed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<T, Boolean>()));
+    }
+
+    /**
+     * Borrows an instance from the pool, waiting if necessary up to the borrow timeout for an instance to be released.
+     *
+     * @return the instance
+     *
+     * @throws IllegalStateException if the thread was interrupted while waiting for an instance or no instance was
+     *                               released before the borrow timeout elapsed
+     */
+    public T borrow() {
+        T result = poll();
+        if (result == null) {
+            try {
+                result = borrowTimeout < 0L ? idle.take() : idle.poll(borrowTimeout, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a pooled instance", e);
+            }
+            if (result == null) {
+                throw new IllegalStateException(String.format("None of the %d pooled instances were released within %d ms", maxSize,
+                        TimeUnit.NANOSECONDS.toMillis(borrowTimeout)));
+            }
+        }
+        borrowed.add(result);
+        return result;
+    }
+
+    /**
+     * Borrows an instance from the pool, waiting up to the timeout for an instance to be released.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     *
+     * @return the instance or {@code null} if the timeout elapsed before an instance was available
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public T borrow(final long timeout, final TimeUnit unit) throws InterruptedException {
+        T result = poll();
+        if (result == null) {
+            result = idle.poll(timeout, unit);
+            if (result == null) {
+                return null;
+            }
+        }
+        borrowed.add(result);
+        return result;
+    }
+
+    /**
+     * Returns an instance to the pool. Instances which are not currently borrowed from this pool are ignored.
+     *
+     * @param instance the instance to return
+     */
+    public void release(final T instance) {
+        // Only borrowed instances are returned, the idle queue can therefore never exceed the maximum size
+        if (instance != null && borrowed.remove(instance)) {
+            idle.offer(instance);
+        }
+    }
+
+    /**
+     * Returns the maximum number of instances this pool creates.
+     *
+     * @return the maximum size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of instances currently waiting in the pool.
+     *
+     * @return the number of idle instances
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    private T poll() {
+        final T result = idle.poll();
+        if (result != null) {
+            return result;
+        }
+        // Create a new instance if the pool has not reached the maximum size
+        int current;
+        while ((current = size.get()) < maxSize) {
+            if (size.compareAndSet(current, current + 1)) {
+                try {
+                    return instantiator.newInstance();
+                } catch (RuntimeException | Error e) {
+                    size.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+        return null;
+    }
+}
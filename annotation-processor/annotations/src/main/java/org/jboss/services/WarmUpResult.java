@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of {@linkplain ServiceFactory#warmUp(java.util.concurrent.Executor) warming up} the factory of a
+ * service.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class WarmUpResult {
+    private final String serviceName;
+    private final long nanos;
+    private final boolean retried;
+    private final Throwable failure;
+
+    WarmUpResult(final String serviceName, final long nanos, final boolean retried, final Throwable failure) {
+        this.serviceName = serviceName;
+        this.nanos = nanos;
+        this.retried = retried;
+        this.failure = failure;
+    }
+
+    /**
+     * The binary name of the service.
+     *
+     * @return the service name
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * The time taken to initialize the factory. If the factory was already initialized this is the time taken to
+     * find out.
+     *
+     * @param unit the unit to return the time in
+     *
+     * @return the time taken
+     */
+    public long getTime(final TimeUnit unit) {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Indicates whether the factory could not be initialized concurrently and was initialized again after all the
+     * other factories. This happens when initializing factories which depend on each other concurrently would have
+     * deadlocked.
+     *
+     * @return {@code true} if the initialization was retried, otherwise {@code false}
+     */
+    public boolean isRetried() {
+        return retried;
+    }
+
+    /**
+     * Indicates whether the factory was initialized.
+     *
+     * @return {@code true} if the factory was initialized, otherwise {@code false}
+     */
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+     * The reason the factory could not be initialized.
+     *
+     * @return the failure or {@code null} if the factory was initialized
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[time=%dus, retried=%s, failure=%s]", serviceName, getTime(TimeUnit.MICROSECONDS), retried, failure);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.annotation;
+
+/**
+ * Describes the instances returned from the {@code getInstance()} method of a generated factory.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public enum Scope {
+
+    /**
+     * A single instance is shared by all callers.
+     */
+    SINGLETON,
+
+    /**
+     * A new instance is created for each invocation.
+     */
+    PROTOTYPE,
+
+    /**
+     * An instance is created for each thread. The instance for the current thread is discarded when it's released.
+     */
+    THREAD,
+
+    /**
+     * Instances are borrowed from a bounded pool and must be released when no longer used. If all instances are
+     * borrowed callers wait until an instance is released, at most for the {@linkplain
+     * org.jboss.services.ServicePool#BORROW_TIMEOUT_PROPERTY borrow timeout}.
+     */
+    POOLED
+}
@@ -46,4 +46,98 @@ public @interface ServiceProvider {
      * @return {@code true} if a factory should be generated, otherwise {@code false}
      */
     boolean generateFactory() default true;
+
+    /**
+     * Defines how the generated factory obtains the provider. This is only used if a factory is generated.
+     *
+     * @return the wiring for the generated factory
+     */
+    Wiring wiring() default Wiring.DEFAULT;
+
+    /**
+     * The priority of the provider. Providers with a higher priority are returned first by the generated factory and
+     * are listed first in the service registration.
+     * <p/>
+     * The settings of the generated factory, such as the {@link #wiring() wiring}, are taken from the provider with
+     * the highest priority.
+     *
+     * @return the priority of the provider
+     */
+    int priority() default 0;
+
+    /**
+     * The scope of the instances returned from the generated factory's {@code getInstance()} method. Instances
+     * returned from the factory should be released with the factory's {@code release()} method or {@link
+     * org.jboss.services.ServiceFactory#release(Class, Object)} when no longer used.
+     *
+     * @return the scope of the instances
+     */
+    Scope scope() default Scope.SINGLETON;
+
+    /**
+     * The maximum number of instances created for a {@link Scope#POOLED pooled} service. If less than {@code 1} the
+     * number of available processors is used.
+     *
+     * @return the maximum pool size
+     */
+    int poolSize() default 0;
+
+    /**
+     * The decorators applied to this provider by the generated factory, the first decorator wraps the provider itself.
+     * <p/>
+     * A decorator must be a public class which implements or extends the {@link #value() service type} and has a
+     * public constructor accepting the service type.
+     *
+     * @return the decorators for this provider
+     */
+    Class<?>[] decorators() default {};
+
+    /**
+     * Indicates whether the provider returned from the generated factory can be replaced at runtime. A mutable
+     * factory has {@code replace()}, {@code reload()}, {@code addListener()} and {@code removeListener()} methods
+     * which atomically swap the provider without locking readers.
+     * <p/>
+     * Only a {@link Scope#SINGLETON singleton} factory can be mutable. The instances of other scopes are copied from
+     * the provider, a warning is printed and the setting is ignored.
+     *
+     * @return {@code true} if the provider can be replaced, otherwise {@code false}
+     */
+    boolean mutable() default false;
+
+    /**
+     * The classes which must be present for this provider to be used. Each value is the binary name of a class.
+     * <p/>
+     * The classes are checked at runtime, once, by the generated factory by locating the class file. Neither the
+     * classes nor the provider are loaded if a class is not present.
+     *
+     * @return the binary names of the required classes
+     */
+    String[] requiresClass() default {};
+
+    /**
+     * The options which must be enabled for this provider to be used. An option is either a name, which is enabled
+     * if the option is set to any value other than {@code false}, or a {@code name=value} pair which is enabled if the
+     * option has the value.
+     * <p/>
+     * If the option is passed to the compiler, for example {@code -Aname=value}, the option is evaluated at build
+     * time and a provider whose option is not enabled is not registered at all. Otherwise the option is checked at
+     * runtime, once, against the system property of the same name and the provider is neither loaded nor
+     * instantiated if the option is not enabled.
+     *
+     * @return the required options
+     */
+    String[] requiresOption() default {};
+
+    /**
+     * Indicates whether a handle should be generated along with the factory. The handle is a class named after the
+     * service with {@code Handle} appended which has a static method forwarding to each method of the service.
+     * <p/>
+     * The handle holds the provider in a {@code static final} field so the JIT can treat it as a constant and inline
+     * the call down to the provider's implementation, even if other providers of the service are used in the same
+     * JVM. A handle is only generated for {@link Scope#SINGLETON singleton} services which are not {@link #mutable()
+     * mutable}.
+     *
+     * @return {@code true} if a handle should be generated, otherwise {@code false}
+     */
+    boolean generateHandle() default false;
 }
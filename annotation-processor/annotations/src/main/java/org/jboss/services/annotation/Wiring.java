@@ -0,0 +1,47 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.annotation;
+
+/**
+ * Describes how a generated factory obtains its provider.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public enum Wiring {
+
+    /**
+     * Uses the wiring defined by the {@code org.jboss.services.wiring} processor option. If the option is not set
+     * {@link #SERVICE_LOADER} is used.
+     */
+    DEFAULT,
+
+    /**
+     * The provider is located with a {@link java.util.ServiceLoader} when the factory is initialized.
+     */
+    SERVICE_LOADER,
+
+    /**
+     * The provider is constructed directly by the factory. A {@link java.util.ServiceLoader} is only used if another
+     * registration for the service is present on the class path.
+     * <p/>
+     * The provider must be a public class with a public no-arg constructor.
+     */
+    DIRECT
+}
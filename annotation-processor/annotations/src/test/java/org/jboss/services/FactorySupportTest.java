@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class FactorySupportTest {
+
+    private static final AtomicInteger CREATED = new AtomicInteger();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testProvidersFromIndex() throws Exception {
+        final File root = folder.newFolder();
+        // Only the index is written, the providers must not be located through META-INF/services
+        writeIndex(root, Low.class, 1, High.class, 10);
+        final List<Greeter> providers = loadProviders(root);
+        Assert.assertEquals(2, providers.size());
+        Assert.assertTrue(providers.get(0) instanceof High);
+        Assert.assertTrue(providers.get(1) instanceof Low);
+    }
+
+    @Test
+    public void testServiceLoaderFallback() throws Exception {
+        final File root = folder.newFolder();
+        final File services = new File(root, "META-INF/services");
+        Assert.assertTrue(services.mkdirs());
+        Files.write(new File(services, Greeter.class.getName()).toPath(), Collections.singletonList(Low.class.getName()), StandardCharsets.UTF_8);
+        final List<Greeter> providers = loadProviders(root);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertTrue(providers.get(0) instanceof Low);
+    }
+
+    @Test
+    public void testUnindexedRegistrationsAdded() throws Exception {
+        // The processor writes both the index and the registration file
+        final File indexed = folder.newFolder();
+        writeIndex(indexed, Low.class, 1, High.class, 10);
+        writeRegistrations(indexed, Low.class, High.class);
+        // A jar built without the processor only has a registration file
+        final File plain = folder.newFolder();
+        writeRegistrations(plain, Plain.class, Low.class);
+        final List<Greeter> providers = loadProviders(indexed, plain);
+        Assert.assertEquals(3, providers.size());
+        // Registrations outside the index have the default priority of 0
+        Assert.assertTrue(providers.get(0) instanceof High);
+        Assert.assertTrue(providers.get(1) instanceof Low);
+        Assert.assertTrue(providers.get(2) instanceof Plain);
+    }
+
+    @Test
+    public void testUnlistedServiceInIndexedRoot() throws Exception {
+        // The index of the root only lists another service, the hand written registration file must still be read
+        final File root = folder.newFolder();
+        final File index = new File(root, ServiceIndex.RESOURCE_NAME);
+        Assert.assertTrue(index.getParentFile().mkdirs());
+        try (OutputStream out = Files.newOutputStream(index.toPath())) {
+            ServiceIndex.write(Collections.singletonMap(Runnable.class.getName(), Collections.singletonMap("org.example.Task", 0)), out);
+        }
+        writeRegistrations(root, Plain.class);
+        final List<Greeter> providers = loadProviders(root);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertTrue(providers.get(0) instanceof Plain);
+    }
+
+    @Test
+    public void testCompleteIndexWithUnindexedRegistration() throws Exception {
+        // A merged registry of other jars which does not register the service
+        final File merged = folder.newFolder();
+        final File index = new File(merged, ServiceIndex.RESOURCE_NAME);
+        Assert.assertTrue(index.getParentFile().mkdirs());
+        try (OutputStream out = Files.newOutputStream(index.toPath())) {
+            ServiceIndex.write(Collections.singletonMap(Runnable.class.getName(), Collections.singletonMap("org.example.Task", 0)), true, out);
+        }
+        Assert.assertTrue(loadProviders(merged).isEmpty());
+        // A jar which was not merged registers the service
+        final File plain = folder.newFolder();
+        writeRegistrations(plain, Plain.class);
+        final List<Greeter> providers = loadProviders(merged, plain);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertTrue(providers.get(0) instanceof Plain);
+    }
+
+    @Test
+    public void testOverriddenByUnindexedRegistration() throws Exception {
+        final File indexed = folder.newFolder();
+        writeIndex(indexed, Low.class, 1, High.class, 10);
+        writeRegistrations(indexed, Low.class, High.class);
+        final File plain = folder.newFolder();
+        writeRegistrations(plain, Plain.class);
+        final ClassLoader current = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader cl = new URLClassLoader(new URL[] {indexed.toURI().toURL(), plain.toURI().toURL()}, getClass().getClassLoader())) {
+            Thread.currentThread().setContextClassLoader(cl);
+            // A directly wired factory falls back to loadProviders() which must see the overriding registration
+            Assert.assertTrue(FactorySupport.isOverridden(Greeter.class));
+            final List<Greeter> providers = FactorySupport.loadProviders(Greeter.class, High.class.getName());
+            Assert.assertEquals(2, providers.size());
+            Assert.assertTrue(providers.get(0) instanceof Low);
+            Assert.assertTrue(providers.get(1) instanceof Plain);
+        } finally {
+            Thread.currentThread().setContextClassLoader(current);
+        }
+    }
+
+    @Test
+    public void testExcludedNotCreated() throws Exception {
+        final File root = folder.newFolder();
+        writeIndex(root, Low.class, 1, High.class, 10);
+        final ClassLoader current = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader cl = new URLClassLoader(new URL[] {root.toURI().toURL()}, getClass().getClassLoader())) {
+            Thread.currentThread().setContextClassLoader(cl);
+            final int created = CREATED.get();
+            final List<Greeter> providers = FactorySupport.loadProviders(Greeter.class, High.class.getName());
+            Assert.assertEquals(1, providers.size());
+            Assert.assertTrue(providers.get(0) instanceof Low);
+            Assert.assertEquals(created + 1, CREATED.get());
+        } finally {
+            Thread.currentThread().setContextClassLoader(current);
+        }
+    }
+
+    @Test
+    public void testNewInstance() {
+        final Greeter prototype = new Low();
+        final int created = CREATED.get();
+        final Greeter first = FactorySupport.newInstance(Greeter.class, prototype);
+        final Greeter second = FactorySupport.newInstance(Greeter.class, prototype);
+        Assert.assertTrue(first instanceof Low);
+        Assert.assertNotSame(prototype, first);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(created + 2, CREATED.get());
+    }
+
+    @Test
+    public void testNewInstanceWithoutConstructor() {
+        try {
+            FactorySupport.newInstance(Greeter.class, new Greeter() {
+            });
+            Assert.fail("Expected an anonymous class not to be instantiated");
+        } catch (IllegalStateException expected) {
+            Assert.assertNotNull(expected.getCause());
+        }
+    }
+
+    private List<Greeter> loadProviders(final File... roots) throws IOException {
+        final URL[] urls = new URL[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            urls[i] = roots[i].toURI().toURL();
+        }
+        final ClassLoader current = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader cl = new URLClassLoader(urls, getClass().getClassLoader())) {
+            Thread.currentThread().setContextClassLoader(cl);
+            return FactorySupport.loadProviders(Greeter.class);
+        } finally {
+            Thread.currentThread().setContextClassLoader(current);
+        }
+    }
+
+    private static void writeRegistrations(final File root, final Class<?>... providers) throws IOException {
+        final File services = new File(root, "META-INF/services");
+        Assert.assertTrue(services.isDirectory() || services.mkdirs());
+        final List<String> names = new ArrayList<>();
+        for (Class<?> provider : providers) {
+            names.add(provider.getName());
+        }
+        Files.write(new File(services, Greeter.class.getName()).toPath(), names, StandardCharsets.UTF_8);
+    }
+
+    private static void writeIndex(final File root, final Class<?> first, final int firstPriority, final Class<?> second,
+                                   final int secondPriority) throws IOException {
+        final Map<String, Integer> implementations = new LinkedHashMap<>();
+        implementations.put(first.getName(), firstPriority);
+        implementations.put(second.getName(), secondPriority);
+        final File index = new File(root, ServiceIndex.RESOURCE_NAME);
+        Assert.assertTrue(index.getParentFile().isDirectory() || index.getParentFile().mkdirs());
+        try (OutputStream out = Files.newOutputStream(index.toPath())) {
+            ServiceIndex.write(Collections.singletonMap(Greeter.class.getName(), implementations), out);
+        }
+    }
+
+    public interface Greeter {
+    }
+
+    public static class Low implements Greeter {
+        public Low() {
+            CREATED.incrementAndGet();
+        }
+    }
+
+    public static class High implements Greeter {
+        public High() {
+            CREATED.incrementAndGet();
+        }
+    }
+
+    public static class Plain implements Greeter {
+        public Plain() {
+            CREATED.incrementAndGet();
+        }
+    }
+}
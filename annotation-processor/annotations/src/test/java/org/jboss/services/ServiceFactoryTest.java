@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ServiceFactoryTest {
+
+    public static final Collected INSTANCE = new Collected() {
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFactoryCollected() throws Exception {
+        final File root = folder.newFolder();
+        final String resourceName = CollectedFactory.class.getName().replace('.', '/') + ".class";
+        final File classFile = new File(root, resourceName);
+        Assert.assertTrue(classFile.getParentFile().mkdirs());
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(resourceName)) {
+            Files.copy(in, classFile.toPath());
+        }
+        final WeakReference<ClassLoader> ref = lookup(root);
+        // The cache must not keep the class loader, or the factory it defined, reachable
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        Assert.assertNull("The class loader of the factory was not collected", ref.get());
+    }
+
+    private static WeakReference<ClassLoader> lookup(final File root) throws IOException {
+        final ClassLoader current = Thread.currentThread().getContextClassLoader();
+        try (FactoryClassLoader cl = new FactoryClassLoader(root.toURI().toURL())) {
+            Thread.currentThread().setContextClassLoader(cl);
+            Assert.assertSame(INSTANCE, ServiceFactory.getInstance(Collected.class));
+            Assert.assertEquals(1, cl.defined);
+            return new WeakReference<ClassLoader>(cl);
+        } finally {
+            Thread.currentThread().setContextClassLoader(current);
+        }
+    }
+
+    public interface Collected {
+    }
+
+    /**
+     * Defines the factory itself rather than delegating to the class loader of the test.
+     */
+    private static class FactoryClassLoader extends URLClassLoader {
+        private int defined;
+
+        private FactoryClassLoader(final URL url) {
+            super(new URL[] {url}, ServiceFactoryTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!CollectedFactory.class.getName().equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> result = findLoadedClass(name);
+                if (result == null) {
+                    result = findClass(name);
+                    defined++;
+                }
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ServiceHolderTest {
+
+    @Test
+    public void testFailureCached() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final ServiceHolder<String> holder = new ServiceHolder<>(String.class, new ProviderLoader<String>() {
+            @Override
+            public List<String> loadProviders() {
+                attempts.incrementAndGet();
+                throw new ServiceConfigurationError("failed");
+            }
+        }, 1L, TimeUnit.HOURS);
+        try {
+            holder.getInstance();
+            Assert.fail("Expected the first lookup to fail");
+        } catch (ServiceConfigurationError expected) {
+        }
+        try {
+            holder.getInstance();
+            Assert.fail("Expected the cached failure");
+        } catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getCause() instanceof ServiceConfigurationError);
+        }
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testReplaceAndReload() {
+        final AtomicInteger loads = new AtomicInteger();
+        final ServiceHolder<String> holder = new ServiceHolder<>(String.class, new ProviderLoader<String>() {
+            @Override
+            public List<String> loadProviders() {
+                return Arrays.asList("primary" + loads.incrementAndGet(), "secondary");
+            }
+        }, true);
+        final List<String> replaced = new ArrayList<>();
+        final ProviderListener<String> listener = new ProviderListener<String>() {
+            @Override
+            public void providerReplaced(final String previous, final String replacement) {
+                replaced.add(previous + "->" + replacement);
+            }
+        };
+        holder.addListener(listener);
+        Assert.assertTrue(holder.isMutable());
+        Assert.assertEquals("primary1", holder.getInstance());
+
+        // Only the provider with the highest priority is replaced
+        Assert.assertEquals("primary1", holder.replace("configured"));
+        Assert.assertEquals("configured", holder.getInstance());
+        Assert.assertEquals(Arrays.asList("configured", "secondary"), holder.getProviders());
+
+        // Reloading discards the replacement
+        Assert.assertEquals("primary2", holder.reload());
+        Assert.assertEquals("primary2", holder.getInstance());
+        Assert.assertEquals(Arrays.asList("primary1->configured", "configured->primary2"), replaced);
+
+        holder.removeListener(listener);
+        holder.replace("removed");
+        Assert.assertEquals(2, replaced.size());
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutableReplace() {
+        final ServiceHolder<String> holder = new ServiceHolder<>(String.class, new ProviderLoader<String>() {
+            @Override
+            public List<String> loadProviders() {
+                return Collections.singletonList("primary");
+            }
+        });
+        Assert.assertFalse(holder.isMutable());
+        holder.replace("configured");
+    }
+
+    /**
+     * A deadlock detected while a provider is created reaches the holder wrapped by the service loader or the factory.
+     * Neither holder may cache the failure, otherwise a retry would fail as well.
+     */
+    @Test
+    public void testWrappedDeadlockNotCached() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(2);
+        // Each holder has its own flag so both first attempts always reach the latch
+        final AtomicBoolean firstA = new AtomicBoolean(true);
+        final AtomicBoolean firstB = new AtomicBoolean(true);
+        final ServiceHolder<?>[] holders = new ServiceHolder<?>[2];
+        final ServiceHolder<String> a = new ServiceHolder<>(String.class, new ProviderLoader<String>() {
+            @Override
+            public List<String> loadProviders() {
+                if (firstA.getAndSet(false)) {
+                    await(loading);
+                }
+                try {
+                    return Collections.singletonList("a" + holders[1].getInstance());
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Could not create a", e);
+                }
+            }
+        }, 1L, TimeUnit.HOURS);
+        final ServiceHolder<String> b = new ServiceHolder<>(String.class, new ProviderLoader<String>() {
+            @Override
+            public List<String> loadProviders() {
+                // Only the first attempt depends on the other holder
+                if (firstB.getAndSet(false)) {
+                    await(loading);
+                    try {
+                        holders[0].getInstance();
+                    } catch (RuntimeException e) {
+                        throw new ServiceConfigurationError("Could not create b", e);
+                    }
+                }
+                return Collections.singletonList("b");
+            }
+        }, 1L, TimeUnit.HOURS);
+        holders[0] = a;
+        holders[1] = b;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> futureA = executor.submit(getInstance(a));
+            final Future<String> futureB = executor.submit(getInstance(b));
+            assertFailed(futureA);
+            assertFailed(futureB);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("ab", a.getInstance());
+        Assert.assertEquals("b", b.getInstance());
+    }
+
+    private static Callable<String> getInstance(final ServiceHolder<String> holder) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return holder.getInstance();
+            }
+        };
+    }
+
+    private static void assertFailed(final Future<String> future) throws InterruptedException, TimeoutException {
+        try {
+            future.get(10L, TimeUnit.SECONDS);
+            Assert.fail("Expected the concurrent lookup to fail");
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        latch.countDown();
+        try {
+            latch.await(10L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ServicePoolTest {
+
+    @Test
+    public void testReleaseReused() throws Exception {
+        final ServicePool<Object> pool = createPool(2, new AtomicInteger());
+        final Object first = pool.borrow();
+        pool.release(first);
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertSame(first, pool.borrow());
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testDoubleReleaseIgnored() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final ServicePool<Object> pool = createPool(2, created);
+        final Object first = pool.borrow();
+        pool.release(first);
+        pool.release(first);
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // The same instance must not be handed out twice
+        final Object a = pool.borrow();
+        final Object b = pool.borrow();
+        Assert.assertNotSame(a, b);
+        Assert.assertEquals(2, created.get());
+        Assert.assertNull(pool.borrow(10L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testForeignReleaseIgnored() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final ServicePool<Object> pool = createPool(1, created);
+        pool.release(new Object());
+        Assert.assertEquals(0, pool.getIdleCount());
+
+        final Object first = pool.borrow();
+        pool.release(new Object());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertNull(pool.borrow(10L, TimeUnit.MILLISECONDS));
+
+        pool.release(first);
+        Assert.assertSame(first, pool.borrow(10L, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testBorrowTimeout() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final ServicePool<Object> pool = new ServicePool<>(1, 10L, TimeUnit.MILLISECONDS, new Instantiator<Object>() {
+            @Override
+            public Object newInstance() {
+                created.incrementAndGet();
+                return new Object();
+            }
+        });
+        final Object first = pool.borrow();
+        try {
+            pool.borrow();
+            Assert.fail("Expected the borrow to time out");
+        } catch (IllegalStateException expected) {
+        }
+        pool.release(first);
+        Assert.assertSame(first, pool.borrow());
+        Assert.assertEquals(1, created.get());
+    }
+
+    private static ServicePool<Object> createPool(final int maxSize, final AtomicInteger created) {
+        return new ServicePool<>(maxSize, new Instantiator<Object>() {
+            @Override
+            public Object newInstance() {
+                created.incrementAndGet();
+                return new Object();
+            }
+        });
+    }
+}
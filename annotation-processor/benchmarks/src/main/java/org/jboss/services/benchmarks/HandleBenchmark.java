@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.services.ServiceFactory;
+import org.jboss.services.example.impl.SystemPropertyResolver;
+import org.jboss.services.example.spi.PropertyResolver;
+import org.jboss.services.example.spi.PropertyResolverFactory;
+import org.jboss.services.example.spi.PropertyResolverHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares calling {@link PropertyResolver#resolve(String)} through the generated {@link PropertyResolverHandle} with
+ * calling it on the instance from the factory.
+ * <p/>
+ * Before the measurement the interface call is made with every provider of the service, as it would be in an
+ * application which uses the providers directly, so the call site is megamorphic.
+ * <p/>
+ * The instance from the factory is the {@link org.jboss.services.example.impl.CompositePropertyResolver}, so the
+ * results include the probes of its layers. By default the system properties are a live layer which cannot be merged
+ * with the other layers. The {@code snapshot} parameter enables {@linkplain SystemPropertyResolver#SNAPSHOT_PROPERTY
+ * snapshot mode} before the factory is first used. The {@code miss} benchmarks resolve a key no layer defines, which
+ * probes every layer.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleBenchmark {
+
+    private static final String KEY = "java.version";
+    private static final String MISSING_KEY = "org.jboss.services.benchmarks.missing";
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private PropertyResolver resolver;
+
+    @Setup
+    public void setup() {
+        // Each parameter runs in its own fork, the resolvers are created after the property is set
+        System.setProperty(SystemPropertyResolver.SNAPSHOT_PROPERTY, Boolean.toString(snapshot));
+        // Pollute the profile of the interface call site before it's compiled
+        final List<PropertyResolver> providers = PropertyResolverFactory.getAll();
+        for (int i = 0; i < 100_000; i++) {
+            resolver = providers.get(i % providers.size());
+            interfaceCall();
+        }
+        resolver = ServiceFactory.getInstance(PropertyResolver.class);
+    }
+
+    @Benchmark
+    public String serviceFactory() {
+        return ServiceFactory.getInstance(PropertyResolver.class).resolve(KEY);
+    }
+
+    @Benchmark
+    public String interfaceCall() {
+        return resolver.resolve(KEY);
+    }
+
+    @Benchmark
+    public String handle() {
+        return PropertyResolverHandle.resolve(KEY);
+    }
+
+    @Benchmark
+    public String serviceFactoryMiss() {
+        return ServiceFactory.getInstance(PropertyResolver.class).resolve(MISSING_KEY);
+    }
+
+    @Benchmark
+    public String handleMiss() {
+        return PropertyResolverHandle.resolve(MISSING_KEY);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.benchmarks;
+
+import java.util.ServiceLoader;
+
+import org.jboss.services.ServiceFactory;
+import org.jboss.services.example.impl.SystemPropertyResolver;
+import org.jboss.services.example.spi.PropertyResolver;
+import org.jboss.services.example.spi.PropertyResolverFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The service lookup paths compared by the benchmarks. The mode and the number of threads are defined by the
+ * subclasses, see {@link SteadyStateBenchmark} and {@link ColdStartBenchmark}.
+ * <p/>
+ * The factories return the {@link org.jboss.services.example.impl.CompositePropertyResolver}, only the lookup of the
+ * instance is measured. The cost of resolving a property through it is measured by {@link HandleBenchmark}.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@State(Scope.Benchmark)
+public abstract class LookupBenchmark {
+
+    private static final String KEY = "java.version";
+
+    private PropertyResolver systemPropertyResolver;
+    private PropertyResolver snapshotSystemPropertyResolver;
+
+    @Setup
+    public void setup() {
+        // Only the resolvers are created, the factories must not be initialized before the benchmark
+        systemPropertyResolver = new SystemPropertyResolver(false);
+        snapshotSystemPropertyResolver = new SystemPropertyResolver(true);
+    }
+
+    @Benchmark
+    public PropertyResolver serviceFactory() {
+        return ServiceFactory.getInstance(PropertyResolver.class);
+    }
+
+    @Benchmark
+    public PropertyResolver generatedFactory() {
+        return PropertyResolverFactory.getInstance();
+    }
+
+    @Benchmark
+    public PropertyResolver serviceLoader() {
+        return ServiceLoader.load(PropertyResolver.class).iterator().next();
+    }
+
+    @Benchmark
+    public String systemPropertyResolver() {
+        return systemPropertyResolver.resolve(KEY);
+    }
+
+    @Benchmark
+    public String snapshotSystemPropertyResolver() {
+        return snapshotSystemPropertyResolver.resolve(KEY);
+    }
+}
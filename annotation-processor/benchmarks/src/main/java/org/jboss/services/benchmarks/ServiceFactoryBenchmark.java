@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.benchmarks;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.services.ServiceFactory;
+import org.jboss.services.example.spi.PropertyResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cached {@link ServiceFactory#getInstance(Class)} lookup with resolving the factory on each invocation.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceFactoryBenchmark {
+
+    @Benchmark
+    public PropertyResolver cachedLookup() {
+        return ServiceFactory.getInstance(PropertyResolver.class);
+    }
+
+    @Benchmark
+    public PropertyResolver uncachedLookup() throws Throwable {
+        return uncachedGetInstance(PropertyResolver.class);
+    }
+
+    /**
+     * The lookup as done by {@link ServiceFactory#getInstance(Class)} before the factory handles were cached.
+     */
+    private static <T> T uncachedGetInstance(final Class<T> serviceType) throws Throwable {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl == null) {
+            cl = ServiceFactory.class.getClassLoader();
+        }
+        final String name = serviceType.getPackage().getName() + "." + serviceType.getSimpleName() + "Factory";
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        final Class<?> factory = Class.forName(name, true, cl);
+        return serviceType.cast(lookup.findStatic(factory, "getInstance", MethodType.methodType(serviceType)).invoke());
+    }
+}
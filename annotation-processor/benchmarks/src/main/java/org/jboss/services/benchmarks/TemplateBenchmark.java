@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.services.example.spi.PropertyResolver;
+import org.jboss.services.example.spi.PropertyTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares expanding a {@link PropertyTemplate} with expanding the same template with a regular expression on every
+ * call.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    private static final String TEMPLATE = "jdbc:postgresql://${db.host:localhost}:${db.port}/${db.name:services}";
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}:]+)(?::([^}]*))?\\}");
+
+    private PropertyResolver resolver;
+    private PropertyTemplate compiled;
+
+    @Setup
+    public void setup() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("db.host", "db.example.com");
+        properties.put("db.port", "5432");
+        resolver = new PropertyResolver() {
+            @Override
+            public String resolve(final String key) {
+                return properties.get(key);
+            }
+        };
+        compiled = PropertyTemplate.compile(TEMPLATE);
+    }
+
+    @Benchmark
+    public String compiledTemplate() {
+        return compiled.expand(resolver);
+    }
+
+    @Benchmark
+    public String cachedTemplate() {
+        return resolver.expand(TEMPLATE);
+    }
+
+    /**
+     * The naive expansion does not support nested placeholders or escaping.
+     */
+    @Benchmark
+    public String regex() {
+        final Matcher matcher = PLACEHOLDER.matcher(TEMPLATE);
+        final StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            String value = resolver.resolve(matcher.group(1));
+            if (value == null) {
+                value = matcher.group(2);
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
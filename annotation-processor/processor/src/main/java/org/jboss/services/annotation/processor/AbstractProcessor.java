@@ -31,6 +31,7 @@ import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
@@ -110,6 +111,28 @@ abstract class AbstractProcessor extends javax.annotation.processing.AbstractPro
         messager.printMessage(Kind.ERROR, String.format(format, args), e);
     }
 
+    /**
+     * Prints a warning message.
+     *
+     * @param e      the element the warning occurred on
+     * @param format the format for the message
+     * @param args   the arguments for the format
+     */
+    protected void printWarning(final Element e, final String format, final Object... args) {
+        messager.printMessage(Kind.WARNING, String.format(format, args), e);
+    }
+
+    /**
+     * Prints an informational message.
+     *
+     * @param e      the element the message is for
+     * @param format the format for the message
+     * @param args   the arguments for the format
+     */
+    protected void printNote(final Element e, final String format, final Object... args) {
+        messager.printMessage(Kind.NOTE, String.format(format, args), e);
+    }
+
     /**
      * Transforms the annotation value into an element.
      *
@@ -132,9 +155,11 @@ abstract class AbstractProcessor extends javax.annotation.processing.AbstractPro
      * @return the annotation or {@code null} if the annotation is not present
      */
     static AnnotationMirror getAnnotation(final Class<? extends Annotation> annotation, final Element element) {
-        final String name = annotation.getName();
+        final String name = annotation.getCanonicalName();
         for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
-            if (mirror.getAnnotationType().toString().equals(name)) {
+            // Compare the name directly rather than creating a string from the type for each mirror
+            final Element annotationType = mirror.getAnnotationType().asElement();
+            if (annotationType instanceof TypeElement && ((TypeElement) annotationType).getQualifiedName().contentEquals(name)) {
                 return mirror;
             }
         }
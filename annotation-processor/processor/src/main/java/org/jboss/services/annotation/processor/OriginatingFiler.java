@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.annotation.processor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import javax.annotation.processing.Filer;
+import javax.lang.model.element.Element;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+
+/**
+ * A filer which adds originating elements to each file created. This allows files created by libraries which are not
+ * aware of originating elements to be tracked by incremental builds.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+class OriginatingFiler implements Filer {
+
+    private final Filer delegate;
+    private final Element[] originatingElements;
+
+    /**
+     * Creates a new filer.
+     *
+     * @param delegate            the filer to delegate to
+     * @param originatingElements the elements added to the originating elements of each file created
+     */
+    OriginatingFiler(final Filer delegate, final Element... originatingElements) {
+        this.delegate = delegate;
+        this.originatingElements = originatingElements;
+    }
+
+    @Override
+    public JavaFileObject createSourceFile(final CharSequence name, final Element... originatingElements) throws IOException {
+        return delegate.createSourceFile(name, concat(originatingElements));
+    }
+
+    @Override
+    public JavaFileObject createClassFile(final CharSequence name, final Element... originatingElements) throws IOException {
+        return delegate.createClassFile(name, concat(originatingElements));
+    }
+
+    @Override
+    public FileObject createResource(final Location location, final CharSequence pkg, final CharSequence relativeName, final Element... originatingElements) throws IOException {
+        return delegate.createResource(location, pkg, relativeName, concat(originatingElements));
+    }
+
+    @Override
+    public FileObject getResource(final Location location, final CharSequence pkg, final CharSequence relativeName) throws IOException {
+        return delegate.getResource(location, pkg, relativeName);
+    }
+
+    private Element[] concat(final Element[] elements) {
+        if (elements == null || elements.length == 0) {
+            return originatingElements;
+        }
+        final Element[] result = Arrays.copyOf(originatingElements, originatingElements.length + elements.length);
+        System.arraycopy(elements, 0, result, originatingElements.length, elements.length);
+        return result;
+    }
+}
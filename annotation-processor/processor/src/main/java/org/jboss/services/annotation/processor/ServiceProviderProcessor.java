@@ -22,33 +22,58 @@ package org.jboss.services.annotation.processor;
 import static org.jboss.jdeparser.JExprs.$;
 import static org.jboss.jdeparser.JTypes._;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Generated;
 import javax.annotation.processing.Filer;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
 import javax.lang.model.element.AnnotationMirror;
 import javax.lang.model.element.AnnotationValue;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
 import javax.lang.model.util.ElementFilter;
 import javax.tools.FileObject;
 import javax.tools.StandardLocation;
@@ -56,87 +81,385 @@ import javax.tools.StandardLocation;
 import org.jboss.jdeparser.FormatPreferences;
 import org.jboss.jdeparser.JBlock;
 import org.jboss.jdeparser.JBlock.Braces;
+import org.jboss.jdeparser.JCall;
 import org.jboss.jdeparser.JClassDef;
 import org.jboss.jdeparser.JDeparser;
 import org.jboss.jdeparser.JExpr;
 import org.jboss.jdeparser.JExprs;
 import org.jboss.jdeparser.JFiler;
-import org.jboss.jdeparser.JIf;
 import org.jboss.jdeparser.JMethodDef;
 import org.jboss.jdeparser.JMod;
+import org.jboss.jdeparser.JParamDeclaration;
 import org.jboss.jdeparser.JSourceFile;
 import org.jboss.jdeparser.JSources;
 import org.jboss.jdeparser.JType;
 import org.jboss.jdeparser.JVarDeclaration;
+import org.jboss.services.Decorator;
+import org.jboss.services.FactorySupport;
+import org.jboss.services.Instantiator;
+import org.jboss.services.ProviderListener;
+import org.jboss.services.ProviderLoader;
+import org.jboss.services.ServiceIndex;
+import org.jboss.services.ServiceHolder;
+import org.jboss.services.ServicePool;
+import org.jboss.services.annotation.Scope;
 import org.jboss.services.annotation.ServiceProvider;
+import org.jboss.services.annotation.Wiring;
 
 /**
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 @SupportedAnnotationTypes("org.jboss.services.annotation.ServiceProvider")
+@SupportedOptions({ServiceProviderProcessor.WIRING_OPTION, ServiceProviderProcessor.MODULE_INFO_OPTION})
 public class ServiceProviderProcessor extends AbstractProcessor {
 
+    /**
+     * The option used to define the {@link Wiring wiring} of factories which use {@link Wiring#DEFAULT}.
+     */
+    static final String WIRING_OPTION = "org.jboss.services.wiring";
+
+    /**
+     * The option used to define how providers missing from the {@code provides} directives of the {@code
+     * module-info.java} are reported. Valid values are {@code warn}, the default, {@code error} and {@code ignore}.
+     */
+    static final String MODULE_INFO_OPTION = "org.jboss.services.moduleInfo";
+
+    private static final Pattern MODULE_INFO_COMMENT = Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern MODULE_INFO_IMPORT = Pattern.compile("\\bimport\\s+([\\w.]+)\\s*;");
+    private static final Pattern MODULE_INFO_PROVIDES = Pattern.compile("\\bprovides\\s+([\\w.]+)\\s+with\\s+([\\w.,\\s]+);");
+
+    // Services are collected across all rounds and registered in the final round
+    private final Map<String, Service> services = new LinkedHashMap<>();
+    // Binary names and decorator validation are cached as the same types are looked up for many providers
+    private final Map<TypeElement, String> binaryNames = new HashMap<>();
+    private final Map<TypeElement, Set<TypeElement>> validDecorators = new HashMap<>();
+
     @Override
     public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
 
         // We only want to process @ServiceProvider types
         final TypeElement annotation = elementUtil.getTypeElement(ServiceProvider.class.getName());
         if (annotations.contains(annotation)) {
-            final Map<CharSequence, Set<CharSequence>> servicesMap = new HashMap<>();
+            final Map<String, Service> roundServices = new LinkedHashMap<>();
             // Get all the classes annotated with @ServiceProvider
             final Set<? extends TypeElement> implementations = ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation));
             for (TypeElement impl : implementations) {
                 // Get the annotation
-                final TypeElement contract = resolveClass(impl);
+                final AnnotationMirror mirror = getAnnotation(ServiceProvider.class, impl);
+                final TypeElement contract = resolveClass(mirror);
                 if (isValid(impl, contract)) {
-                    final CharSequence contractName = elementUtil.getBinaryName(contract);
-                    final Set<CharSequence> impls;
-                    if (servicesMap.containsKey(contractName)) {
-                        impls = servicesMap.get(contractName);
-                    } else {
-                        impls = new LinkedHashSet<>();
-                        servicesMap.put(contractName, impls);
-                        // Generate the factory if required
-                        final ServiceProvider serviceProvider = impl.getAnnotation(ServiceProvider.class);
-                        if (serviceProvider.generateFactory()) {
-                            generateFactorySource(filer, contract);
-                        }
+                    final ServiceProvider serviceProvider = impl.getAnnotation(ServiceProvider.class);
+                    final String disabledOption = getDisabledOption(serviceProvider);
+                    if (disabledOption != null) {
+                        printNote(impl, "%s is not registered as the required option %s is not enabled", impl.getQualifiedName(), disabledOption);
+                        continue;
+                    }
+                    final String contractName = getBinaryName(contract);
+                    Service service = services.get(contractName);
+                    if (service == null) {
+                        service = new Service(contract, contractName);
+                        services.put(contractName, service);
                     }
-                    impls.add(elementUtil.getBinaryName(impl));
+                    // The factory cannot be regenerated, the provider is only found through its registration
+                    if (service.wiring == Wiring.DIRECT) {
+                        printWarning(impl, "The factory for %s was generated in a previous round, %s is only registered in META-INF/services", contractName, impl.getQualifiedName());
+                    } else if (service.wiring != null) {
+                        printWarning(impl, "The factory for %s was generated in a previous round, the runtime conditions and decorators of %s are not applied by the factory",
+                                contractName, impl.getQualifiedName());
+                    }
+                    service.add(new Provider(impl, getBinaryName(impl), serviceProvider, resolveDecorators(impl, mirror, contract)));
+                    roundServices.put(contractName, service);
                 }
             }
 
-            // Check for an existing file
-            for (Entry<CharSequence, Set<CharSequence>> entry : servicesMap.entrySet()) {
-                try {
-                    final FileObject fileObject = filer.getResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + entry.getKey());
-                    try (final BufferedReader reader = new BufferedReader(new InputStreamReader(fileObject.openInputStream(), StandardCharsets.UTF_8))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            entry.getValue().add(line);
+            // Generate the factories if required, the settings are taken from the provider with the highest priority.
+            // Factories must be generated before the final round so they are compiled with the other sources.
+            final List<Service> factories = new ArrayList<>();
+            final List<Element> originatingElements = new ArrayList<>();
+            for (Service service : roundServices.values()) {
+                final Provider primary = service.getProviders().get(0);
+                if (service.wiring == null && primary.serviceProvider.generateFactory()) {
+                    service.wiring = resolveWiring(service);
+                    factories.add(service);
+                    Collections.addAll(originatingElements, service.getOriginatingElements());
+                }
+            }
+            if (!factories.isEmpty()) {
+                // All the factories of a round are written with a single set of sources
+                final Filer filer = new OriginatingFiler(this.filer, originatingElements.toArray(new Element[originatingElements.size()]));
+                final JSources sources = JDeparser.createSources(JFiler.newInstance(filer), new FormatPreferences(new Properties()));
+                final String date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date());
+                for (Service service : factories) {
+                    final Provider primary = service.getProviders().get(0);
+                    generateFactorySource(sources, date, service, service.wiring, primary.serviceProvider);
+                    if (primary.serviceProvider.generateHandle()) {
+                        if (primary.serviceProvider.scope() != Scope.SINGLETON || primary.serviceProvider.mutable()) {
+                            printWarning(primary.type, "A handle is only generated for services which are immutable singletons, no handle is generated for %s", service.name);
+                        } else if (!service.type.getTypeParameters().isEmpty()) {
+                            printWarning(primary.type, "A handle cannot be generated for the generic service %s", service.name);
+                        } else {
+                            generateHandleSource(sources, date, service);
                         }
                     }
-                } catch (FileNotFoundException ignore) {
-                    // File was not found, we can ignore this
+                }
+                try {
+                    sources.writeSources();
                 } catch (IOException e) {
                     printError(e);
                 }
             }
+        }
 
-            for (Entry<CharSequence, Set<CharSequence>> entry : servicesMap.entrySet()) {
-                try {
-                    final FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + entry.getKey());
-                    try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(fileObject.openOutputStream(), StandardCharsets.UTF_8))) {
-                        for (CharSequence s : entry.getValue()) {
-                            writer.println(s.toString());
+        // Each file is written once after all the providers have been collected
+        if (roundEnv.processingOver() && !services.isEmpty()) {
+            writeRegistrations();
+        }
+        return false;
+    }
+
+    private void writeRegistrations() {
+        // Include the registrations from previous compilations
+        final ServiceIndex previous = readServiceIndex();
+        for (Service service : services.values()) {
+            try {
+                final FileObject fileObject = filer.getResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + service.name);
+                try (final BufferedReader reader = new BufferedReader(new InputStreamReader(fileObject.openInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final String name = parseRegistration(line);
+                        if (name != null && isRegistered(name, service.name)) {
+                            service.addRegistration(name, previous.getPriority(service.name, name));
                         }
                     }
-                } catch (IOException e) {
-                    printError(e);
                 }
+            } catch (FileNotFoundException | NoSuchFileException ignore) {
+                // File was not found, we can ignore this
+            } catch (IOException e) {
+                printError(e);
             }
         }
-        return false;
+
+        for (Service service : services.values()) {
+            try {
+                final FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + service.name, service.getOriginatingElements());
+                try (final PrintWriter writer = new PrintWriter(new OutputStreamWriter(fileObject.openOutputStream(), StandardCharsets.UTF_8))) {
+                    for (String s : service.getRegistrations().keySet()) {
+                        writer.println(s);
+                    }
+                }
+            } catch (IOException e) {
+                printError(e);
+            }
+        }
+
+        writeServiceIndex(previous);
+        validateModuleInfo();
+    }
+
+    /**
+     * Checks that each provider is declared in a {@code provides} directive of the {@code module-info.java}, if the
+     * sources have one. On the module path the {@code META-INF/services} files are ignored and a provider which is not
+     * declared is never found.
+     */
+    private void validateModuleInfo() {
+        final String option = options.get(MODULE_INFO_OPTION);
+        if ("ignore".equalsIgnoreCase(option)) {
+            return;
+        }
+        final boolean strict = "error".equalsIgnoreCase(option);
+        final CharSequence source;
+        try {
+            final FileObject fileObject = filer.getResource(StandardLocation.SOURCE_PATH, "", "module-info.java");
+            source = fileObject.getCharContent(true);
+        } catch (FileNotFoundException | NoSuchFileException | IllegalArgumentException ignore) {
+            // Not a module or no source path was defined
+            return;
+        } catch (IOException e) {
+            printError(e);
+            return;
+        }
+        final Map<String, Set<String>> provides = parseProvides(source);
+        for (Service service : services.values()) {
+            final String serviceName = service.type.getQualifiedName().toString();
+            final Set<String> declared = provides.containsKey(serviceName) ? provides.get(serviceName) : Collections.<String>emptySet();
+            final StringBuilder missing = new StringBuilder();
+            for (Provider provider : service.getProviders()) {
+                final String providerName = provider.type.getQualifiedName().toString();
+                if (!declared.contains(providerName)) {
+                    final String format = "%s is not declared in module-info.java and will not be found on the module path";
+                    if (strict) {
+                        printError(provider.type, format, providerName);
+                    } else {
+                        printWarning(provider.type, format, providerName);
+                    }
+                    missing.append(missing.length() == 0 ? "" : ", ").append(providerName);
+                }
+            }
+            if (missing.length() > 0) {
+                printNote(service.type, "Add the directive: provides %s with %s;", serviceName, missing);
+            }
+        }
+    }
+
+    /**
+     * Parses the {@code provides} directives of a module declaration. Simple names are resolved with the imports of
+     * the module declaration.
+     *
+     * @param source the source of the module declaration
+     *
+     * @return the canonical names of the providers keyed by the canonical name of the service
+     */
+    static Map<String, Set<String>> parseProvides(final CharSequence source) {
+        final String text = MODULE_INFO_COMMENT.matcher(source).replaceAll(" ");
+        final Map<String, String> imports = new HashMap<>();
+        Matcher matcher = MODULE_INFO_IMPORT.matcher(text);
+        while (matcher.find()) {
+            final String name = matcher.group(1);
+            imports.put(name.substring(name.lastIndexOf('.') + 1), name);
+        }
+        final Map<String, Set<String>> result = new LinkedHashMap<>();
+        matcher = MODULE_INFO_PROVIDES.matcher(text);
+        while (matcher.find()) {
+            final String serviceName = resolveImport(imports, matcher.group(1));
+            Set<String> providers = result.get(serviceName);
+            if (providers == null) {
+                providers = new LinkedHashSet<>();
+                result.put(serviceName, providers);
+            }
+            for (String provider : matcher.group(2).split(",")) {
+                providers.add(resolveImport(imports, provider.trim()));
+            }
+        }
+        return result;
+    }
+
+    private static String resolveImport(final Map<String, String> imports, final String name) {
+        final String imported = imports.get(name);
+        return imported == null ? name : imported;
+    }
+
+    private ServiceIndex readServiceIndex() {
+        try {
+            final FileObject fileObject = filer.getResource(StandardLocation.CLASS_OUTPUT, "", ServiceIndex.RESOURCE_NAME);
+            try (final InputStream in = fileObject.openInputStream()) {
+                return ServiceIndex.read(in);
+            }
+        } catch (FileNotFoundException | NoSuchFileException ignore) {
+            // File was not found, we can ignore this
+        } catch (IOException e) {
+            printError(e);
+        }
+        return ServiceIndex.empty();
+    }
+
+    private void writeServiceIndex(final ServiceIndex previous) {
+        final Map<String, Map<String, Integer>> registrations = new TreeMap<>();
+        final List<Element> originatingElements = new ArrayList<>();
+        // Retain the services registered in previous compilations
+        for (String serviceName : previous.getServiceNames()) {
+            final Map<String, Integer> impls = new LinkedHashMap<>();
+            for (String impl : previous.getImplementations(serviceName)) {
+                if (isRegistered(impl, serviceName)) {
+                    impls.put(impl, previous.getPriority(serviceName, impl));
+                }
+            }
+            if (!impls.isEmpty()) {
+                registrations.put(serviceName, impls);
+            }
+        }
+        for (Service service : services.values()) {
+            registrations.put(service.name, service.getRegistrations());
+            Collections.addAll(originatingElements, service.getOriginatingElements());
+        }
+        try {
+            final FileObject fileObject = filer.createResource(StandardLocation.CLASS_OUTPUT, "", ServiceIndex.RESOURCE_NAME,
+                    originatingElements.toArray(new Element[originatingElements.size()]));
+            try (final OutputStream out = new BufferedOutputStream(fileObject.openOutputStream())) {
+                ServiceIndex.write(registrations, out);
+            }
+        } catch (IOException e) {
+            printError(e);
+        }
+    }
+
+    /**
+     * Parses a line from a {@code META-INF/services} file.
+     *
+     * @param line the line to parse
+     *
+     * @return the provider name or {@code null} if the line does not contain a provider
+     */
+    static String parseRegistration(final String line) {
+        final int comment = line.indexOf('#');
+        final String result = (comment < 0 ? line : line.substring(0, comment)).trim();
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Checks whether a provider registered in a previous compilation is still a provider of the service. Providers
+     * which no longer exist, or which are now annotated as a provider of another service, are stale. Providers which
+     * are not annotated are assumed to be registered manually and are retained.
+     *
+     * @param providerName the binary name of the provider
+     * @param serviceName  the binary name of the service
+     *
+     * @return {@code true} if the provider should be retained, otherwise {@code false}
+     */
+    private boolean isRegistered(final String providerName, final String serviceName) {
+        final TypeElement provider = elementUtil.getTypeElement(providerName.replace('$', '.'));
+        if (provider == null) {
+            return false;
+        }
+        final TypeElement contract = resolveClass(provider);
+        if (contract != null && getDisabledOption(provider.getAnnotation(ServiceProvider.class)) != null) {
+            return false;
+        }
+        return contract == null || serviceName.equals(getBinaryName(contract));
+    }
+
+    /**
+     * Returns the first {@linkplain ServiceProvider#requiresOption() required option} which was passed to the
+     * compiler and is not enabled. Options which were not passed to the compiler are checked at runtime.
+     */
+    private String getDisabledOption(final ServiceProvider serviceProvider) {
+        if (serviceProvider != null) {
+            for (String option : serviceProvider.requiresOption()) {
+                final int index = option.indexOf('=');
+                final String name = index < 0 ? option : option.substring(0, index);
+                if (options.containsKey(name)) {
+                    // An option passed without a value, -Aname, is enabled
+                    final String value = options.get(name);
+                    final boolean enabled = index < 0 ? value == null || !"false".equalsIgnoreCase(value) : option.substring(index + 1).equals(value);
+                    if (!enabled) {
+                        return option;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the expression for the conditions of the provider which are checked at runtime or {@code null} if the
+     * provider does not have any runtime conditions.
+     */
+    private JExpr getRuntimeCondition(final JType serviceClassType, final ServiceProvider serviceProvider) {
+        final JType factorySupportType = _(FactorySupport.class);
+        JExpr result = null;
+        for (String className : serviceProvider.requiresClass()) {
+            final JExpr condition = factorySupportType.call("isClassPresent").arg(serviceClassType._class()).arg(JExprs.str(className));
+            result = result == null ? condition : result.and(condition);
+        }
+        for (String option : serviceProvider.requiresOption()) {
+            final int index = option.indexOf('=');
+            final String name = index < 0 ? option : option.substring(0, index);
+            if (!options.containsKey(name)) {
+                final JExpr condition = factorySupportType.call("isOptionEnabled").arg(JExprs.str(name))
+                        .arg(index < 0 ? JExpr.NULL : JExprs.str(option.substring(index + 1)));
+                result = result == null ? condition : result.and(condition);
+            }
+        }
+        return result;
     }
 
     private boolean isValid(final TypeElement impl, final TypeElement contract) {
@@ -148,14 +471,26 @@ public class ServiceProviderProcessor extends AbstractProcessor {
             return false;
             // Validate the class implements or extends the service
         } else if (!typeUtil.isAssignable(impl.asType(), contract.asType())) {
-            printError(impl, "Type %s is not assignable from %s", elementUtil.getBinaryName(impl), elementUtil.getBinaryName(contract));
+            printError(impl, "Type %s is not assignable from %s", getBinaryName(impl), getBinaryName(contract));
             return false;
         }
         return true;
     }
 
+    private String getBinaryName(final TypeElement type) {
+        String result = binaryNames.get(type);
+        if (result == null) {
+            result = elementUtil.getBinaryName(type).toString();
+            binaryNames.put(type, result);
+        }
+        return result;
+    }
+
     private TypeElement resolveClass(final Element type) {
-        final AnnotationMirror mirror = getAnnotation(ServiceProvider.class, type);
+        return resolveClass(getAnnotation(ServiceProvider.class, type));
+    }
+
+    private TypeElement resolveClass(final AnnotationMirror mirror) {
         if (mirror != null) {
             final AnnotationValue value = getAnnotationValue(mirror);
             if (value != null) {
@@ -165,54 +500,587 @@ public class ServiceProviderProcessor extends AbstractProcessor {
         return null;
     }
 
-    private void generateFactorySource(final Filer filer, final TypeElement type) {
+    private List<TypeElement> resolveDecorators(final TypeElement impl, final AnnotationMirror mirror, final TypeElement contract) {
+        final AnnotationValue value = getAnnotationValue(mirror, "decorators");
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        final List<TypeElement> result = new ArrayList<>();
+        for (Object o : (List<?>) value.getValue()) {
+            final TypeElement decorator = toElement((AnnotationValue) o);
+            Set<TypeElement> valid = validDecorators.get(contract);
+            if (valid == null) {
+                valid = new HashSet<>();
+                validDecorators.put(contract, valid);
+            }
+            if (valid.contains(decorator)) {
+                result.add(decorator);
+            } else if (decorator.getKind() != ElementKind.CLASS || decorator.getModifiers().contains(Modifier.ABSTRACT) || !decorator.getModifiers().contains(Modifier.PUBLIC)) {
+                printError(impl, "Decorator %s must be a public concrete class", decorator.getQualifiedName());
+            } else if (!typeUtil.isAssignable(decorator.asType(), contract.asType())) {
+                printError(impl, "Decorator %s is not assignable from %s", getBinaryName(decorator), getBinaryName(contract));
+            } else if (!hasDecoratorConstructor(decorator, contract)) {
+                printError(impl, "Decorator %s must have a public constructor accepting %s", decorator.getQualifiedName(), contract.getQualifiedName());
+            } else {
+                valid.add(decorator);
+                result.add(decorator);
+            }
+        }
+        return result;
+    }
+
+    private boolean hasDecoratorConstructor(final TypeElement decorator, final TypeElement contract) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(decorator.getEnclosedElements())) {
+            if (constructor.getParameters().size() == 1 && constructor.getModifiers().contains(Modifier.PUBLIC)
+                    && typeUtil.isAssignable(contract.asType(), constructor.getParameters().get(0).asType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves the wiring of the factory from the settings of the primary provider. A directly wired factory creates
+     * every provider with its no-arg constructor, if any provider cannot be created that way the factory falls back
+     * to a {@link java.util.ServiceLoader}.
+     */
+    private Wiring resolveWiring(final Service service) {
+        final Provider primary = service.getProviders().get(0);
+        final TypeElement impl = primary.type;
+        Wiring result = primary.serviceProvider.wiring();
+        if (result == Wiring.DEFAULT) {
+            result = Wiring.SERVICE_LOADER;
+            final String value = options.get(WIRING_OPTION);
+            if (value != null) {
+                try {
+                    result = Wiring.valueOf(value.trim().toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    printError(impl, "Invalid value %s for option %s", value, WIRING_OPTION);
+                }
+            }
+        }
+        if (result == Wiring.DIRECT) {
+            if (!hasPublicConstructor(impl)) {
+                printError(impl, "%s must be public and have a public no-arg constructor to be wired directly", impl.getQualifiedName());
+                return Wiring.SERVICE_LOADER;
+            }
+            for (Provider provider : service.getProviders()) {
+                if (!hasPublicConstructor(provider.type)) {
+                    printWarning(provider.type, "%s is not public or does not have a public no-arg constructor, the factory for %s uses a ServiceLoader",
+                            provider.type.getQualifiedName(), service.name);
+                    return Wiring.SERVICE_LOADER;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasPublicConstructor(final TypeElement impl) {
+        if (isAccessible(impl)) {
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(impl.getEnclosedElements())) {
+                if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the type can be referenced from a generated factory. A nested type must be a public static member
+     * of an accessible type.
+     */
+    private static boolean isAccessible(final TypeElement type) {
+        if (!type.getModifiers().contains(Modifier.PUBLIC)) {
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER) {
+            final Element enclosing = type.getEnclosingElement();
+            return (type.getModifiers().contains(Modifier.STATIC) || enclosing.getKind().isInterface()) && isAccessible((TypeElement) enclosing);
+        }
+        return type.getNestingKind() == NestingKind.TOP_LEVEL;
+    }
+
+    private void generateFactorySource(final JSources sources, final String date, final Service service, final Wiring wiring, final ServiceProvider settings) {
+        final TypeElement type = service.type;
+        final Scope scope = settings.scope();
+        // Scoped instances are copied from the provider, a replaced provider would not be copied
+        final boolean mutable = settings.mutable() && scope == Scope.SINGLETON;
+        if (settings.mutable() && !mutable) {
+            printWarning(service.getProviders().get(0).type, "Only singleton factories can be mutable, the factory for %s is not mutable", service.name);
+        }
         // Set up the names
         final String packageName = elementUtil.getPackageOf(type).toString();
         final String factoryName = type.getSimpleName() + "Factory";
         final String serviceClassName = type.getQualifiedName().toString();
 
         // Create the class definition
-        final JSources sources = JDeparser.createSources(JFiler.newInstance(filer), new FormatPreferences(new Properties()));
         final JSourceFile sourceFile = sources.createSourceFile(packageName, factoryName);
         final JClassDef classDef = sourceFile._class(JMod.PUBLIC, factoryName);
 
         // Imports
-        sourceFile._import(ServiceLoader.class);
+        sourceFile._import(FactorySupport.class);
         sourceFile._import(Generated.class);
+        sourceFile._import(List.class);
 
         // Add the @Generated annotation to the class
         classDef.annotate(Generated.class)
                 .value("value", getClass().getName())
-                .value("date", JExprs.str(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date())));
+                .value("date", JExprs.str(date));
 
         // Create the types needed
         final JType serviceClassType = _(serviceClassName);
-        final JType serviceLoaderType = _(ServiceLoader.class).typeArg(serviceClassType);
+        final JType listType = _(List.class).typeArg(serviceClassType);
+        final JType factorySupportType = _(FactorySupport.class);
+        final JType holderType = _(ServiceHolder.class).typeArg(serviceClassType);
+        sourceFile._import(ServiceHolder.class);
+        sourceFile._import(ProviderLoader.class);
 
-        // Create a static instance of the field
-        final JVarDeclaration instance = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, serviceClassType, "INSTANCE");
-
-        // A static initializer
-        final JBlock staticInit = classDef.staticInit();
-
-        // Create the ServiceLoader variable in the body
-        final JVarDeclaration loader = staticInit.var(JMod.FINAL, serviceLoaderType, "loader", serviceLoaderType.call("load").arg(serviceClassType._class()));
+        // The providers are loaded by the holder the first time they are required
+        final JClassDef loader = classDef._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Loader");
+        loader._implements(_(ProviderLoader.class).typeArg(serviceClassType));
+        final JMethodDef loadProvidersMethod = loader.method(JMod.PUBLIC, listType, "loadProviders");
+        loadProvidersMethod.annotate(Override.class);
+        // Scoped instances are copied from the undecorated primary provider and decorated once
+        final boolean keepPrimary = service.hasDecorators() && scope != Scope.SINGLETON;
+        final JBlock loaderBody;
+        if (keepPrimary) {
+            final JVarDeclaration primaryField = loader.field(JMod.PRIVATE | JMod.VOLATILE, serviceClassType, "primary");
+            loaderBody = loader.method(JMod.PRIVATE, listType, "loadUndecorated").body();
+            final JBlock body = loadProvidersMethod.body();
+            final JVarDeclaration providers = body.var(JMod.FINAL, listType, "providers", JExprs.call("loadUndecorated"));
+            body.assign($(primaryField), $(providers).call("isEmpty").cond(JExpr.NULL, $(providers).call("get").arg(JExprs.decimal(0))));
+            body._return(decorate(sourceFile, classDef, service, serviceClassType, $(providers)));
+        } else {
+            loaderBody = loadProvidersMethod.body();
+        }
+        // Providers whose runtime conditions are not met are excluded without being loaded
+        final JCall loadProvidersCall = factorySupportType.call("loadProviders").arg(serviceClassType._class());
+        for (Provider provider : service.getProviders()) {
+            final JExpr condition = getRuntimeCondition(serviceClassType, provider.serviceProvider);
+            if (condition != null) {
+                loadProvidersCall.arg(factorySupportType.call("unless").arg(condition).arg(JExprs.str(provider.name)));
+            }
+        }
+        final JExpr loadProviders = keepPrimary ? loadProvidersCall : decorate(sourceFile, classDef, service, serviceClassType, loadProvidersCall);
+        final JExpr overridden;
 
-        // If the loader's iterator has a next, return it otherwise return null
-        final JIf decision = staticInit._if($(loader).call("iterator").call("hasNext"));
-        decision.block(Braces.REQUIRED).assign($(instance), $(loader).call("iterator").call("next"));
-        decision._else().block(Braces.REQUIRED).assign($(instance), JExpr.NULL);
+        // Directly wired factories only use a ServiceLoader if another registration is on the class path
+        if (wiring == Wiring.DIRECT) {
+            // The registrations are only checked once, no providers are created when the class is initialized
+            final JClassDef overriddenDef = classDef._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Overridden");
+            final JVarDeclaration value = overriddenDef.field(JMod.STATIC | JMod.FINAL, JType.BOOLEAN, "VALUE",
+                    factorySupportType.call("isOverridden").arg(serviceClassType._class()));
+            overridden = JExprs.$v("Overridden").field(value.name());
+            loaderBody._if(overridden).block(Braces.REQUIRED)._return(loadProviders);
+            // The providers are already sorted by priority
+            final JCall asList = factorySupportType.call("asList").arg(serviceClassType._class());
+            for (Provider provider : service.getProviders()) {
+                final JExpr newProvider = _(provider.type.getQualifiedName().toString())._new();
+                final JExpr condition = getRuntimeCondition(serviceClassType, provider.serviceProvider);
+                asList.arg(condition == null ? newProvider : condition.cond(newProvider, JExpr.NULL));
+            }
+            loaderBody._return(keepPrimary ? asList : decorate(sourceFile, classDef, service, serviceClassType, asList));
+        } else {
+            overridden = null;
+            loaderBody._return(loadProviders);
+        }
+        final JExpr loaderInstance;
+        if (keepPrimary) {
+            final JVarDeclaration loaderField = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, _("Loader"), "LOADER", _("Loader")._new());
+            loaderInstance = $(loaderField);
+        } else {
+            loaderInstance = _("Loader")._new();
+        }
+        final JCall newHolder = holderType._new().arg(serviceClassType._class()).arg(loaderInstance);
+        if (mutable) {
+            newHolder.arg(JExpr.TRUE);
+        }
+        final JVarDeclaration holder = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, holderType, "HOLDER", newHolder);
+        final JExpr instance = $(holder).call("getInstance");
+        if (keepPrimary) {
+            // The holder loads the providers, which records the primary provider, the first time it's required
+            final JBlock getPrimary = loader.method(0, serviceClassType, "getPrimary").body();
+            getPrimary.add(instance);
+            getPrimary._return(JExprs.$v("primary"));
+        }
 
         // Create a static method
         final JMethodDef getInstance = classDef.method(JMod.PUBLIC | JMod.STATIC, serviceClassName, "getInstance");
-        // Create the body of the method
-        getInstance.body()._return($(instance));
+        getInstance.body().add(factorySupportType.call("recordLookup").arg(serviceClassType._class()));
+        // Create a method to release instances
+        final JMethodDef release = classDef.method(JMod.PUBLIC | JMod.STATIC, JType.VOID, "release");
+        release.param(JMod.FINAL, serviceClassType, "instance");
 
-        // Write the source file
-        try {
-            sources.writeSources();
-        } catch (IOException e) {
-            printError(type, "Error generating factory class: %s", e);
+        if (scope == Scope.SINGLETON) {
+            // Create the body of the method, singletons are never released
+            getInstance.body()._return(instance);
+        } else {
+            // Non-singleton scopes require an instantiator for new instances
+            sourceFile._import(Instantiator.class);
+            final JClassDef creator = classDef._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Creator");
+            creator._implements(_(Instantiator.class).typeArg(serviceClassType));
+            final JMethodDef newInstance = creator.method(JMod.PUBLIC, serviceClassType, "newInstance");
+            newInstance.annotate(Override.class);
+            final JExpr prototype = keepPrimary ? JExprs.$v("LOADER").call("getPrimary") : instance;
+            final JExpr copyPrimary = decorateInstance(service, factorySupportType.call("newInstance").arg(serviceClassType._class()).arg(prototype));
+            // The primary provider can only be created directly if it is always present
+            final Provider primary = service.getProviders().get(0);
+            if (overridden != null && getRuntimeCondition(serviceClassType, primary.serviceProvider) == null) {
+                newInstance.body()._if(overridden).block(Braces.REQUIRED)._return(copyPrimary);
+                newInstance.body()._return(decorateInstance(service, _(primary.type.getQualifiedName().toString())._new()));
+            } else {
+                newInstance.body()._return(copyPrimary);
+            }
+            final JExpr newCreator = _("Creator")._new();
+
+            switch (scope) {
+                case PROTOTYPE: {
+                    getInstance.body()._return(newCreator.call("newInstance"));
+                    break;
+                }
+                case THREAD: {
+                    final JType threadLocalType = _(ThreadLocal.class).typeArg(serviceClassType);
+                    final JVarDeclaration instances = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, threadLocalType, "INSTANCES",
+                            factorySupportType.call("threadLocal").arg(newCreator));
+                    getInstance.body()._return($(instances).call("get"));
+                    release.body().add(factorySupportType.call("release").arg($(instances)).arg(JExprs.$v("instance")));
+                    break;
+                }
+                case POOLED: {
+                    sourceFile._import(ServicePool.class);
+                    final JType poolType = _(ServicePool.class).typeArg(serviceClassType);
+                    final JVarDeclaration pool = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, poolType, "POOL",
+                            poolType._new().arg(JExprs.decimal(settings.poolSize())).arg(newCreator));
+                    getInstance.body()._return($(pool).call("borrow"));
+                    release.body().add($(pool).call("release").arg(JExprs.$v("instance")));
+                    break;
+                }
+            }
+        }
+
+        // Returns all the providers
+        final JMethodDef getAll = classDef.method(JMod.PUBLIC | JMod.STATIC, listType, "getAll");
+        getAll.body()._return($(holder).call("getProviders"));
+
+        // Mutable factories allow the provider to be replaced at runtime
+        if (mutable) {
+            sourceFile._import(ProviderListener.class);
+            final JMethodDef replace = classDef.method(JMod.PUBLIC | JMod.STATIC, serviceClassType, "replace");
+            final JParamDeclaration provider = replace.param(JMod.FINAL, serviceClassType, "provider");
+            replace.body()._return($(holder).call("replace").arg($(provider)));
+
+            final JMethodDef reload = classDef.method(JMod.PUBLIC | JMod.STATIC, serviceClassType, "reload");
+            reload.body()._return($(holder).call("reload"));
+
+            final JType listenerType = _(ProviderListener.class).typeArg(serviceClassType);
+            final JMethodDef addListener = classDef.method(JMod.PUBLIC | JMod.STATIC, JType.VOID, "addListener");
+            final JParamDeclaration added = addListener.param(JMod.FINAL, listenerType, "listener");
+            addListener.body().add($(holder).call("addListener").arg($(added)));
+            final JMethodDef removeListener = classDef.method(JMod.PUBLIC | JMod.STATIC, JType.VOID, "removeListener");
+            final JParamDeclaration removed = removeListener.param(JMod.FINAL, listenerType, "listener");
+            removeListener.body().add($(holder).call("removeListener").arg($(removed)));
+        }
+
+        // Returns the instance once the providers have been loaded on the executor
+        sourceFile._import(CompletableFuture.class);
+        sourceFile._import(Executor.class);
+        final JType futureType = _(CompletableFuture.class).typeArg(serviceClassType);
+        final JMethodDef getInstanceAsync = classDef.method(JMod.PUBLIC | JMod.STATIC, futureType, "getInstanceAsync");
+        getInstanceAsync.body()._return(JExprs.call("getInstanceAsync").arg(_(ServiceHolder.class).call("getDefaultExecutor")));
+        final JMethodDef getInstanceAsyncExecutor = classDef.method(JMod.PUBLIC | JMod.STATIC, futureType, "getInstanceAsync");
+        final JParamDeclaration executor = getInstanceAsyncExecutor.param(JMod.FINAL, Executor.class, "executor");
+        if (scope == Scope.SINGLETON) {
+            getInstanceAsyncExecutor.body().add(factorySupportType.call("recordLookup").arg(serviceClassType._class()));
+            getInstanceAsyncExecutor.body()._return($(holder).call("getInstanceAsync").arg($(executor)));
+        } else {
+            // The scoped instance is retrieved once the providers have been loaded
+            sourceFile._import(Function.class);
+            final JClassDef scoped = classDef._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Scoped");
+            scoped._implements(_(Function.class).typeArg(listType, serviceClassType));
+            final JMethodDef apply = scoped.method(JMod.PUBLIC, serviceClassType, "apply");
+            apply.annotate(Override.class);
+            apply.param(JMod.FINAL, listType, "providers");
+            apply.body()._return(_(factoryName).call("getInstance"));
+            getInstanceAsyncExecutor.body()._return($(holder).call("getProvidersAsync").arg($(executor)).call("thenApply").arg(_("Scoped")._new()));
+        }
+    }
+
+    /**
+     * Generates a handle with a static method forwarding to each public method of the service. The provider is held
+     * in a {@code static final} field so the call is bound to the provider's implementation once the handle is
+     * initialized.
+     */
+    private void generateHandleSource(final JSources sources, final String date, final Service service) {
+        final TypeElement type = service.type;
+        final String packageName = elementUtil.getPackageOf(type).toString();
+        final String handleName = type.getSimpleName() + "Handle";
+        final JType serviceClassType = _(type.getQualifiedName().toString());
+
+        final JSourceFile sourceFile = sources.createSourceFile(packageName, handleName);
+        final JClassDef classDef = sourceFile._class(JMod.PUBLIC | JMod.FINAL, handleName);
+        sourceFile._import(Generated.class);
+        classDef.annotate(Generated.class)
+                .value("value", getClass().getName())
+                .value("date", JExprs.str(date));
+
+        // Initialized on first use, the factory has already loaded the providers
+        final JVarDeclaration instance = classDef.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, serviceClassType, "INSTANCE",
+                _(type.getSimpleName() + "Factory").call("getInstance"));
+        classDef.constructor(JMod.PRIVATE);
+
+        final Set<String> signatures = new HashSet<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elementUtil.getAllMembers(type))) {
+            final Set<Modifier> modifiers = method.getModifiers();
+            if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)
+                    || ((TypeElement) method.getEnclosingElement()).getQualifiedName().contentEquals(Object.class.getName())) {
+                continue;
+            }
+            // The same method may be inherited from more than one interface
+            final StringBuilder signature = new StringBuilder(method.getSimpleName());
+            for (VariableElement parameter : method.getParameters()) {
+                signature.append(',').append(typeUtil.erasure(parameter.asType()));
+            }
+            if (!signatures.add(signature.toString())) {
+                continue;
+            }
+            final JType returnType = toType(method.getReturnType());
+            final List<JType> parameterTypes = new ArrayList<>();
+            for (VariableElement parameter : method.getParameters()) {
+                parameterTypes.add(toType(parameter.asType()));
+            }
+            final List<JType> thrownTypes = new ArrayList<>();
+            for (TypeMirror thrownType : method.getThrownTypes()) {
+                thrownTypes.add(toType(thrownType));
+            }
+            if (!method.getTypeParameters().isEmpty() || returnType == null || parameterTypes.contains(null) || thrownTypes.contains(null)) {
+                printNote(method, "%s.%s is not included in %s as its signature is generic", service.name, method.getSimpleName(), handleName);
+                continue;
+            }
+            final JMethodDef forward = classDef.method(JMod.PUBLIC | JMod.STATIC, returnType, method.getSimpleName().toString());
+            final JCall call = $(instance).call(method.getSimpleName().toString());
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                final JParamDeclaration param = forward.param(JMod.FINAL, parameterTypes.get(i), method.getParameters().get(i).getSimpleName().toString());
+                call.arg($(param));
+            }
+            for (JType thrownType : thrownTypes) {
+                forward._throws(thrownType);
+            }
+            if (method.getReturnType().getKind() == TypeKind.VOID) {
+                forward.body().add(call);
+            } else {
+                forward.body()._return(call);
+            }
+        }
+    }
+
+    /**
+     * Creates the type for a type used in a method signature or {@code null} if the type refers to a type variable
+     * or a lower bounded wildcard.
+     */
+    private static JType toType(final TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return JType.BOOLEAN;
+            case BYTE:
+                return JType.BYTE;
+            case CHAR:
+                return JType.CHAR;
+            case SHORT:
+                return JType.SHORT;
+            case INT:
+                return JType.INT;
+            case LONG:
+                return JType.LONG;
+            case FLOAT:
+                return JType.FLOAT;
+            case DOUBLE:
+                return JType.DOUBLE;
+            case VOID:
+                return JType.VOID;
+            case ARRAY: {
+                final JType componentType = toType(((ArrayType) type).getComponentType());
+                return componentType == null ? null : componentType.array();
+            }
+            case DECLARED: {
+                final DeclaredType declaredType = (DeclaredType) type;
+                final JType result = _(((TypeElement) declaredType.asElement()).getQualifiedName().toString());
+                if (declaredType.getTypeArguments().isEmpty()) {
+                    return result;
+                }
+                final JType[] typeArguments = new JType[declaredType.getTypeArguments().size()];
+                for (int i = 0; i < typeArguments.length; i++) {
+                    typeArguments[i] = toType(declaredType.getTypeArguments().get(i));
+                    if (typeArguments[i] == null) {
+                        return null;
+                    }
+                }
+                return result.typeArg(typeArguments);
+            }
+            case WILDCARD: {
+                final WildcardType wildcardType = (WildcardType) type;
+                if (wildcardType.getSuperBound() != null) {
+                    return null;
+                }
+                if (wildcardType.getExtendsBound() == null) {
+                    return JType.WILDCARD;
+                }
+                final JType bound = toType(wildcardType.getExtendsBound());
+                return bound == null ? null : bound.wildcardExtends();
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decorates the providers if any provider of the service has decorators. The decorators are implemented in a
+     * nested {@code Decorators} class which is generated the first time it's required.
+     */
+    private JExpr decorate(final JSourceFile sourceFile, final JClassDef classDef, final Service service, final JType serviceClassType, final JExpr providers) {
+        if (!service.hasDecorators()) {
+            return providers;
+        }
+        if (!service.decoratorsGenerated) {
+            sourceFile._import(Decorator.class);
+            final JClassDef decorators = classDef._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, "Decorators");
+            decorators._implements(_(Decorator.class).typeArg(serviceClassType));
+            final JMethodDef decorate = decorators.method(JMod.PUBLIC, serviceClassType, "decorate");
+            decorate.annotate(Override.class);
+            decorate.param(JMod.FINAL, serviceClassType, "provider");
+            final JBlock body = decorate.body();
+            final JVarDeclaration name = body.var(JMod.FINAL, _(String.class), "name", JExprs.$v("provider").call("getClass").call("getName"));
+            for (Provider provider : service.getProviders()) {
+                if (!provider.decorators.isEmpty()) {
+                    JExpr decorated = JExprs.$v("provider");
+                    for (TypeElement decorator : provider.decorators) {
+                        decorated = _(decorator.getQualifiedName().toString())._new().arg(decorated);
+                    }
+                    body._if(JExprs.str(provider.name).call("equals").arg($(name))).block(Braces.REQUIRED)._return(decorated);
+                }
+            }
+            body._return(JExprs.$v("provider"));
+            service.decoratorsGenerated = true;
+        }
+        return _(FactorySupport.class).call("decorate").arg(providers).arg(_("Decorators")._new());
+    }
+
+    private static JExpr decorateInstance(final Service service, final JExpr instance) {
+        if (service.hasDecorators()) {
+            return _("Decorators")._new().call("decorate").arg(instance);
+        }
+        return instance;
+    }
+
+    private static class Service {
+        final TypeElement type;
+        final String name;
+        private final List<Provider> providers;
+        private final Map<String, Integer> previousRegistrations;
+        boolean decoratorsGenerated;
+        // The wiring of the generated factory or null if no factory has been generated
+        Wiring wiring;
+
+        Service(final TypeElement type, final String name) {
+            this.type = type;
+            this.name = name;
+            providers = new ArrayList<>();
+            previousRegistrations = new LinkedHashMap<>();
+        }
+
+        void add(final Provider provider) {
+            providers.add(provider);
+        }
+
+        /**
+         * Returns the provider types processed in any round, which are the elements the generated files originate
+         * from.
+         *
+         * @return the originating elements
+         */
+        Element[] getOriginatingElements() {
+            final Element[] result = new Element[providers.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = providers.get(i).type;
+            }
+            return result;
+        }
+
+        boolean hasDecorators() {
+            for (Provider provider : providers) {
+                if (!provider.decorators.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void addRegistration(final String name, final int priority) {
+            if (!previousRegistrations.containsKey(name)) {
+                previousRegistrations.put(name, priority);
+            }
+        }
+
+        /**
+         * Returns the providers processed in all rounds ordered by priority, highest first.
+         *
+         * @return the providers
+         */
+        List<Provider> getProviders() {
+            // The sort is stable so providers with the same priority are left in the order they were processed
+            Collections.sort(providers, new Comparator<Provider>() {
+                @Override
+                public int compare(final Provider o1, final Provider o2) {
+                    return Integer.compare(o2.serviceProvider.priority(), o1.serviceProvider.priority());
+                }
+            });
+            return providers;
+        }
+
+        /**
+         * Returns the names of all the registered providers, including previous compilations, mapped to their priority
+         * and ordered by priority, highest first.
+         *
+         * @return the registrations
+         */
+        Map<String, Integer> getRegistrations() {
+            final List<Entry<String, Integer>> entries = new ArrayList<>();
+            final Set<String> names = new HashSet<>();
+            for (Provider provider : getProviders()) {
+                entries.add(new SimpleImmutableEntry<>(provider.name, provider.serviceProvider.priority()));
+                names.add(provider.name);
+            }
+            // Registrations from previous compilations are replaced by the providers processed in this compilation
+            for (Entry<String, Integer> entry : previousRegistrations.entrySet()) {
+                if (!names.contains(entry.getKey())) {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries, new Comparator<Entry<String, Integer>>() {
+                @Override
+                public int compare(final Entry<String, Integer> o1, final Entry<String, Integer> o2) {
+                    return Integer.compare(o2.getValue(), o1.getValue());
+                }
+            });
+            final Map<String, Integer> result = new LinkedHashMap<>();
+            for (Entry<String, Integer> entry : entries) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+    }
+
+    private static class Provider {
+        final TypeElement type;
+        final String name;
+        final ServiceProvider serviceProvider;
+        final List<TypeElement> decorators;
+
+        Provider(final TypeElement type, final String name, final ServiceProvider serviceProvider, final List<TypeElement> decorators) {
+            this.type = type;
+            this.name = name;
+            this.serviceProvider = serviceProvider;
+            this.decorators = decorators;
         }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.annotation.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jboss.services.ServiceIndex;
+
+/**
+ * Merges the service registrations of several modules into a single registry, for example before the modules are
+ * shaded into a single jar where the {@code META-INF/services} files and {@value ServiceIndex#RESOURCE_NAME} of each
+ * module would otherwise overwrite each other.
+ * <p/>
+ * Each input is a jar or a directory. The {@value ServiceIndex#RESOURCE_NAME} and the {@code META-INF/services} files
+ * of each input are read in order. An implementation registered more than once keeps its first registration.
+ * Implementations only registered in {@code META-INF/services} have a priority of {@code 0}. The merged files are
+ * written to the output directory:
+ * <ul>
+ * <li>{@code META-INF/services/<service>} listing the implementations sorted by priority</li>
+ * <li>a {@linkplain ServiceIndex#isComplete() complete} {@value ServiceIndex#RESOURCE_NAME}, which describes every
+ * registration of the merged inputs. Registrations in {@code META-INF/services} files of jars which were not merged
+ * are still added to the providers of the index</li>
+ * </ul>
+ * The output directory should be added to the shaded jar in place of the files from the inputs. For example with the
+ * {@code exec-maven-plugin} before the {@code maven-shade-plugin} runs:
+ * <pre>
+ *     java -cp processor.jar:annotations.jar org.jboss.services.annotation.processor.ServiceRegistryMerger \
+ *         target/merged-services module-a.jar module-b.jar
+ * </pre>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ServiceRegistryMerger {
+
+    private static final String SERVICES_DIR = "META-INF/services/";
+
+    // Service names mapped to the implementations and their priorities, in registration order
+    private final Map<String, Map<String, Integer>> registrations = new TreeMap<>();
+
+    /**
+     * Merges the registrations of the inputs into the output directory.
+     *
+     * @param args the output directory followed by the jars or directories to merge
+     *
+     * @throws IOException if an input could not be read or the output could not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.printf("Usage: %s <output directory> <jar or directory>...%n", ServiceRegistryMerger.class.getName());
+            System.exit(1);
+        }
+        final ServiceRegistryMerger merger = new ServiceRegistryMerger();
+        for (int i = 1; i < args.length; i++) {
+            merger.add(Paths.get(args[i]));
+        }
+        merger.write(Paths.get(args[0]));
+    }
+
+    /**
+     * Adds the registrations of a jar or directory.
+     *
+     * @param input the jar or directory
+     *
+     * @throws IOException if the input could not be read
+     */
+    public void add(final Path input) throws IOException {
+        if (Files.isDirectory(input)) {
+            final Path index = input.resolve(ServiceIndex.RESOURCE_NAME);
+            if (Files.isRegularFile(index)) {
+                try (InputStream in = Files.newInputStream(index)) {
+                    addIndex(ServiceIndex.read(in));
+                }
+            }
+            final Path services = input.resolve(SERVICES_DIR);
+            if (Files.isDirectory(services)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(services)) {
+                    for (Path file : files) {
+                        if (Files.isRegularFile(file)) {
+                            try (InputStream in = Files.newInputStream(file)) {
+                                addRegistrations(file.getFileName().toString(), in);
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile(input.toFile())) {
+                final ZipEntry index = zip.getEntry(ServiceIndex.RESOURCE_NAME);
+                if (index != null) {
+                    try (InputStream in = zip.getInputStream(index)) {
+                        addIndex(ServiceIndex.read(in));
+                    }
+                }
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    final String name = entry.getName();
+                    if (!entry.isDirectory() && name.startsWith(SERVICES_DIR) && name.indexOf('/', SERVICES_DIR.length()) < 0) {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            addRegistrations(name.substring(SERVICES_DIR.length()), in);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the merged {@code META-INF/services} files and the complete service index to the directory.
+     *
+     * @param outputDir the directory to write the files to
+     *
+     * @throws IOException if the files could not be written
+     */
+    public void write(final Path outputDir) throws IOException {
+        final Path services = outputDir.resolve(SERVICES_DIR);
+        Files.createDirectories(services);
+        final Map<String, Map<String, Integer>> sorted = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Integer>> entry : registrations.entrySet()) {
+            final Map<String, Integer> implementations = sort(entry.getValue());
+            sorted.put(entry.getKey(), implementations);
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(services.resolve(entry.getKey()), StandardCharsets.UTF_8))) {
+                for (String implementation : implementations.keySet()) {
+                    writer.println(implementation);
+                }
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(outputDir.resolve(ServiceIndex.RESOURCE_NAME))) {
+            ServiceIndex.write(sorted, true, out);
+        }
+    }
+
+    private void addIndex(final ServiceIndex index) {
+        for (Map.Entry<String, List<String>> entry : index.getServices().entrySet()) {
+            final Map<String, Integer> implementations = getImplementations(entry.getKey());
+            for (String implementation : entry.getValue()) {
+                if (!implementations.containsKey(implementation)) {
+                    implementations.put(implementation, index.getPriority(entry.getKey(), implementation));
+                }
+            }
+        }
+    }
+
+    private void addRegistrations(final String serviceName, final InputStream in) throws IOException {
+        final Map<String, Integer> implementations = getImplementations(serviceName);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String name = ServiceProviderProcessor.parseRegistration(line);
+            if (name != null && !implementations.containsKey(name)) {
+                implementations.put(name, 0);
+            }
+        }
+    }
+
+    private Map<String, Integer> getImplementations(final String serviceName) {
+        Map<String, Integer> result = registrations.get(serviceName);
+        if (result == null) {
+            result = new LinkedHashMap<>();
+            registrations.put(serviceName, result);
+        }
+        return result;
+    }
+
+    private static Map<String, Integer> sort(final Map<String, Integer> implementations) {
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(implementations.entrySet());
+        // The sort is stable so implementations with the same priority stay in registration order
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(final Map.Entry<String, Integer> o1, final Map.Entry<String, Integer> o2) {
+                return Integer.compare(o2.getValue(), o1.getValue());
+            }
+        });
+        final Map<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.annotation.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * A scalability benchmark for the {@link ServiceProviderProcessor}.
+ * <p/>
+ * Synthetic source sets with the requested number of {@link org.jboss.services.annotation.ServiceProvider
+ * &#64;ServiceProvider} types, spread across many contracts and packages, are compiled in-process with the system
+ * {@link JavaCompiler}. Each source set is compiled with and without the processor and the time spent in the processor
+ * is reported per round.
+ * <p/>
+ * The sizes are passed as arguments and default to 100, 1000 and 10000 providers. The following system properties
+ * are supported:
+ * <ul>
+ * <li>{@value #WARMUP_PROPERTY} the number of warm up compilations for each size, defaults to 2</li>
+ * <li>{@value #ITERATIONS_PROPERTY} the number of measured compilations for each size, defaults to 5</li>
+ * <li>{@value #MAX_MILLIS_PROPERTY} the maximum average time in milliseconds the processor may take for the largest
+ * size, if exceeded the benchmark exits with an error which allows it to be used as a regression gate</li>
+ * </ul>
+ * The benchmark can be run with the {@code benchmark} profile of the processor module: {@code mvn test -Pbenchmark}.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class ProcessorBenchmark {
+
+    static final String WARMUP_PROPERTY = "org.jboss.services.benchmark.warmup";
+    static final String ITERATIONS_PROPERTY = "org.jboss.services.benchmark.iterations";
+    static final String MAX_MILLIS_PROPERTY = "org.jboss.services.benchmark.maxProcessorMillis";
+
+    private static final int PROVIDERS_PER_CONTRACT = 10;
+    private static final int CONTRACTS_PER_PACKAGE = 10;
+
+    public static void main(final String[] args) throws Exception {
+        final int[] sizes;
+        if (args.length == 0) {
+            sizes = new int[] {100, 1000, 10000};
+        } else {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        final int warmup = Integer.getInteger(WARMUP_PROPERTY, 2);
+        final int iterations = Integer.getInteger(ITERATIONS_PROPERTY, 5);
+        final String maxMillis = System.getProperty(MAX_MILLIS_PROPERTY);
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The benchmark requires a JDK, no system Java compiler was found");
+        }
+
+        System.out.printf("%10s %8s %14s %14s %14s %14s%n", "providers", "rounds", "processor ms", "ms/round", "compile ms", "baseline ms");
+        Result last = null;
+        final Path dir = Files.createTempDirectory("processor-benchmark");
+        try {
+            for (int size : sizes) {
+                final List<Path> sources = generateSources(dir.resolve("src-" + size), size);
+                Result result = null;
+                for (int i = 0; i < warmup + iterations; i++) {
+                    final Result current = compile(compiler, dir, sources);
+                    if (i >= warmup) {
+                        result = result == null ? current : result.add(current);
+                    }
+                }
+                last = result.divide(iterations);
+                System.out.printf("%10d %8d %14.2f %14.2f %14.2f %14.2f%n", size, last.rounds, millis(last.processorNanos),
+                        millis(last.processorNanos) / Math.max(1, last.rounds), millis(last.compileNanos), millis(last.baselineNanos));
+            }
+        } finally {
+            delete(dir);
+        }
+
+        if (maxMillis != null && last != null && millis(last.processorNanos) > Double.parseDouble(maxMillis)) {
+            System.err.printf("The processor took %.2f ms for %d providers which exceeds the maximum of %s ms%n", millis(last.processorNanos), sizes[sizes.length - 1], maxMillis);
+            System.exit(1);
+        }
+    }
+
+    private static Result compile(final JavaCompiler compiler, final Path dir, final List<Path> sources) throws IOException {
+        final TimingProcessor processor = new TimingProcessor(new ServiceProviderProcessor());
+        final long compileNanos = compile(compiler, dir, sources, processor);
+        final long baselineNanos = compile(compiler, dir, sources, null);
+        return new Result(processor.rounds, processor.nanos, compileNanos, baselineNanos);
+    }
+
+    private static long compile(final JavaCompiler compiler, final Path dir, final List<Path> sources, final Processor processor) throws IOException {
+        // Each compilation uses a new output directory so no registrations from previous compilations are merged
+        final Path classes = Files.createTempDirectory(dir, "classes");
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, Locale.ROOT, StandardCharsets.UTF_8)) {
+            final Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromFiles(toFiles(sources));
+            final List<String> options = new ArrayList<>(Arrays.asList("-d", classes.toString(), "-classpath", System.getProperty("java.class.path"), "-nowarn"));
+            if (processor == null) {
+                options.add("-proc:none");
+            }
+            final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, compilationUnits);
+            if (processor != null) {
+                task.setProcessors(Collections.singleton(processor));
+            }
+            final long start = System.nanoTime();
+            final boolean success = task.call();
+            final long nanos = System.nanoTime() - start;
+            if (!success) {
+                final StringBuilder msg = new StringBuilder("Compilation failed:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                        msg.append(System.lineSeparator()).append(diagnostic);
+                    }
+                }
+                throw new IllegalStateException(msg.toString());
+            }
+            return nanos;
+        } finally {
+            delete(classes);
+        }
+    }
+
+    /**
+     * Generates the sources. Each contract has {@value #PROVIDERS_PER_CONTRACT} providers with varying priorities and
+     * every other contract is wired directly.
+     */
+    private static List<Path> generateSources(final Path dir, final int providers) throws IOException {
+        final List<Path> result = new ArrayList<>();
+        final int contracts = Math.max(1, providers / PROVIDERS_PER_CONTRACT);
+        for (int c = 0; c < contracts; c++) {
+            final String packageName = "bench.p" + (c / CONTRACTS_PER_PACKAGE);
+            result.add(write(dir, packageName, "Contract" + c,
+                    String.format("package %s;%n%npublic interface Contract%d {%n    String name();%n}%n", packageName, c)));
+        }
+        for (int p = 0; p < providers; p++) {
+            final int c = p % contracts;
+            final String packageName = "bench.p" + (c / CONTRACTS_PER_PACKAGE);
+            final String wiring = (c % 2 == 0 ? "org.jboss.services.annotation.Wiring.DIRECT" : "org.jboss.services.annotation.Wiring.SERVICE_LOADER");
+            result.add(write(dir, packageName, "Provider" + p, String.format("package %s;%n%n" +
+                    "@org.jboss.services.annotation.ServiceProvider(value = Contract%d.class, priority = %d, wiring = %s)%n" +
+                    "public class Provider%d implements Contract%d {%n" +
+                    "    @Override%n" +
+                    "    public String name() {%n" +
+                    "        return \"Provider%d\";%n" +
+                    "    }%n" +
+                    "}%n", packageName, c, p % 3, wiring, p, c, p)));
+        }
+        return result;
+    }
+
+    private static Path write(final Path dir, final String packageName, final String simpleName, final String source) throws IOException {
+        final Path file = dir.resolve(packageName.replace('.', '/')).resolve(simpleName + ".java");
+        Files.createDirectories(file.getParent());
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+        return file;
+    }
+
+    private static List<File> toFiles(final List<Path> paths) {
+        final List<File> result = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            result.add(path.toFile());
+        }
+        return result;
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / 1000000D;
+    }
+
+    private static void delete(final Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static final class Result {
+        final int rounds;
+        final long processorNanos;
+        final long compileNanos;
+        final long baselineNanos;
+
+        private Result(final int rounds, final long processorNanos, final long compileNanos, final long baselineNanos) {
+            this.rounds = rounds;
+            this.processorNanos = processorNanos;
+            this.compileNanos = compileNanos;
+            this.baselineNanos = baselineNanos;
+        }
+
+        Result add(final Result other) {
+            return new Result(rounds + other.rounds, processorNanos + other.processorNanos, compileNanos + other.compileNanos, baselineNanos + other.baselineNanos);
+        }
+
+        Result divide(final int divisor) {
+            return new Result(rounds / divisor, processorNanos / divisor, compileNanos / divisor, baselineNanos / divisor);
+        }
+    }
+
+    /**
+     * A processor which records the time spent in each round of the delegate.
+     */
+    private static final class TimingProcessor implements Processor {
+        private final Processor delegate;
+        int rounds;
+        long nanos;
+
+        private TimingProcessor(final Processor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(final ProcessingEnvironment processingEnv) {
+            final long start = System.nanoTime();
+            delegate.init(processingEnv);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+            final long start = System.nanoTime();
+            try {
+                return delegate.process(annotations, roundEnv);
+            } finally {
+                nanos += System.nanoTime() - start;
+                rounds++;
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(final Element element, final AnnotationMirror annotation, final ExecutableElement member, final String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+}
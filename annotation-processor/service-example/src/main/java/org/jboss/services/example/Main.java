@@ -31,11 +31,21 @@ public class Main {
         final PropertyResolver resolver = ServiceFactory.getInstance(PropertyResolver.class);
         System.out.printf("Implementation: %s%n%n", resolver.getClass().getName());
 
-        System.out.printf("%s (%s) - %s%n", resolver.resolve("os.name"), resolver.resolve("os.version"), resolver.resolve("os.arch"));
+        // Resolve all the properties in a single batch
+        final String[] keys = {
+                "os.name", "os.version", "os.arch",
+                "java.version",
+                "java.runtime.name", "java.runtime.version",
+                "java.vm.name", "java.vm.version", "java.vm.info",
+        };
+        final String[] values = new String[keys.length];
+        resolver.resolveInto(keys, values);
 
-        System.out.printf("version \"%s\"%n", resolver.resolve("java.version"));
-        System.out.printf("%s (%s)%n", resolver.resolve("java.runtime.name"), resolver.resolve("java.runtime.version"));
+        System.out.printf("%s (%s) - %s%n", values[0], values[1], values[2]);
 
-        System.out.printf("%s (build %s, %s)%n", resolver.resolve("java.vm.name"), resolver.resolve("java.vm.version"), resolver.resolve("java.vm.info"));
+        System.out.printf("version \"%s\"%n", values[3]);
+        System.out.printf("%s (%s)%n", values[4], values[5]);
+
+        System.out.printf("%s (build %s, %s)%n", values[6], values[7], values[8]);
     }
 }
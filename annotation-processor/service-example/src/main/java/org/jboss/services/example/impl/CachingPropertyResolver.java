@@ -0,0 +1,422 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.services.example.spi.PropertyChangeListener;
+import org.jboss.services.example.spi.PropertyResolver;
+
+/**
+ * A resolver which caches the values resolved from another resolver.
+ * <p/>
+ * The cache is bounded and evicts the least recently used values once the maximum size is reached. Values may
+ * optionally expire after they have been written and keys without a value can be cached as well.
+ * <p/>
+ * If the delegate {@linkplain PropertyResolver#addChangeListener(PropertyChangeListener) notifies} changes only the
+ * keys which changed are invalidated and the change is forwarded to the listeners of this resolver.
+ * <p/>
+ * The cache can be enabled for a provider by adding this class as a decorator:
+ * <pre>
+ *     &#64;ServiceProvider(value = PropertyResolver.class, decorators = CachingPropertyResolver.class)
+ *     &#64;CachingPropertyResolver.Settings(maximumSize = 256, expireAfterWrite = 30, timeUnit = TimeUnit.SECONDS)
+ *     public class RemotePropertyResolver implements PropertyResolver {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class CachingPropertyResolver implements PropertyResolver {
+
+    /**
+     * The settings for the cache of a decorated resolver. If not present on the decorated resolver the defaults are
+     * used.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Documented
+    public @interface Settings {
+
+        /**
+         * The maximum number of keys to cache.
+         *
+         * @return the maximum size of the cache
+         */
+        int maximumSize() default 1024;
+
+        /**
+         * The time after which a cached value expires. A value of {@code 0} or less indicates the values never
+         * expire.
+         *
+         * @return the time after which a cached value expires
+         */
+        long expireAfterWrite() default 0L;
+
+        /**
+         * The unit of the {@link #expireAfterWrite()} value.
+         *
+         * @return the time unit
+         */
+        TimeUnit timeUnit() default TimeUnit.MILLISECONDS;
+
+        /**
+         * Indicates whether keys which resolve to {@code null} should be cached.
+         *
+         * @return {@code true} if {@code null} values should be cached, otherwise {@code false}
+         */
+        boolean cacheNulls() default true;
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 32;
+
+    private final PropertyResolver delegate;
+    private final Segment[] segments;
+    private final long expireAfterWriteNanos;
+    private final boolean cacheNulls;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ChangeListeners listeners = new ChangeListeners(this);
+
+    /**
+     * Creates a new caching resolver. The {@link Settings settings} are read from the delegate's type.
+     *
+     * @param delegate the resolver to cache the values of
+     */
+    public CachingPropertyResolver(final PropertyResolver delegate) {
+        this(delegate, delegate.getClass().getAnnotation(Settings.class));
+    }
+
+    /**
+     * Creates a new caching resolver.
+     *
+     * @param delegate         the resolver to cache the values of
+     * @param maximumSize      the maximum number of keys to cache
+     * @param expireAfterWrite the time after which a cached value expires, {@code 0} or less if values never expire
+     * @param timeUnit         the unit of the expiration time
+     * @param cacheNulls       {@code true} if keys which resolve to {@code null} should be cached
+     */
+    public CachingPropertyResolver(final PropertyResolver delegate, final int maximumSize, final long expireAfterWrite,
+                                   final TimeUnit timeUnit, final boolean cacheNulls) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("The maximum size must be greater than 0");
+        }
+        this.delegate = delegate;
+        this.expireAfterWriteNanos = expireAfterWrite > 0L ? timeUnit.toNanos(expireAfterWrite) : 0L;
+        this.cacheNulls = cacheNulls;
+        // Use a power of two for the number of segments, small caches are not split to keep the eviction order exact
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * MIN_SEGMENT_SIZE < maximumSize) {
+            segmentCount <<= 1;
+        }
+        segments = new Segment[segmentCount];
+        final int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentSize, evictions);
+        }
+        delegate.addChangeListener(new Invalidator(segments, listeners));
+    }
+
+    private CachingPropertyResolver(final PropertyResolver delegate, final Settings settings) {
+        this(delegate, settings == null ? 1024 : settings.maximumSize(), settings == null ? 0L : settings.expireAfterWrite(),
+                settings == null ? TimeUnit.MILLISECONDS : settings.timeUnit(), settings == null || settings.cacheNulls());
+    }
+
+    @Override
+    public String resolve(final String key) {
+        final Segment segment = segmentFor(key);
+        final CachedValue cached = segment.get(key);
+        if (cached != null && !cached.isExpired()) {
+            hits.increment();
+            return cached.value;
+        }
+        misses.increment();
+        // An invalidation while the delegate is read discards the value, it may already be stale
+        final long generation = segment.generation();
+        final String value = delegate.resolve(key);
+        if (value != null || cacheNulls) {
+            segment.put(key, new CachedValue(value, expireAfterWriteNanos > 0L ? System.nanoTime() + expireAfterWriteNanos : 0L), generation);
+        }
+        return value;
+    }
+
+    @Override
+    public void resolveInto(final String[] keys, final String[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException(String.format("The output array length %d is less than the number of keys %d", out.length, keys.length));
+        }
+        // Answer what we can from the cache and resolve the misses from the delegate in a single batch
+        int missCount = 0;
+        int[] missIndexes = null;
+        long[] generations = null;
+        for (int i = 0; i < keys.length; i++) {
+            final Segment segment = segmentFor(keys[i]);
+            final CachedValue cached = segment.get(keys[i]);
+            if (cached != null && !cached.isExpired()) {
+                out[i] = cached.value;
+            } else {
+                if (missIndexes == null) {
+                    missIndexes = new int[keys.length - i];
+                    generations = new long[keys.length - i];
+                }
+                generations[missCount] = segment.generation();
+                missIndexes[missCount++] = i;
+            }
+        }
+        hits.add(keys.length - missCount);
+        if (missCount > 0) {
+            misses.add(missCount);
+            final String[] missedKeys = new String[missCount];
+            for (int i = 0; i < missCount; i++) {
+                missedKeys[i] = keys[missIndexes[i]];
+            }
+            final String[] values = new String[missCount];
+            delegate.resolveInto(missedKeys, values);
+            final long expiresAt = expireAfterWriteNanos > 0L ? System.nanoTime() + expireAfterWriteNanos : 0L;
+            for (int i = 0; i < missCount; i++) {
+                final String value = values[i];
+                if (value != null || cacheNulls) {
+                    segmentFor(missedKeys[i]).put(missedKeys[i], new CachedValue(value, expiresAt), generations[i]);
+                }
+                out[missIndexes[i]] = value;
+            }
+        }
+    }
+
+    @Override
+    public boolean addChangeListener(final PropertyChangeListener listener) {
+        return listeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(final PropertyChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Removes the cached value for the key.
+     *
+     * @param key the key to invalidate
+     */
+    public void invalidate(final String key) {
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * Removes all the cached values.
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the resolver the values are cached for.
+     *
+     * @return the delegate resolver
+     */
+    public PropertyResolver getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns a snapshot of the statistics for this cache.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return new Statistics(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Segment segmentFor(final String key) {
+        return segmentFor(segments, key);
+    }
+
+    private static Segment segmentFor(final Segment[] segments, final String key) {
+        // Spread the hash so the higher bits are used to select the segment
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    /**
+     * Invalidates the keys changed in the delegate. The listener does not reference the resolver so it is not
+     * published to the delegate before the resolver has been constructed.
+     */
+    private static final class Invalidator implements PropertyChangeListener {
+        private final Segment[] segments;
+        private final ChangeListeners listeners;
+
+        private Invalidator(final Segment[] segments, final ChangeListeners listeners) {
+            this.segments = segments;
+            this.listeners = listeners;
+        }
+
+        @Override
+        public void propertiesChanged(final PropertyResolver resolver, final Set<String> keys) {
+            for (String key : keys) {
+                segmentFor(segments, key).remove(key);
+            }
+            listeners.fire(keys);
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a cache.
+     */
+    public static final class Statistics {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int size;
+
+        private Statistics(final long hitCount, final long missCount, final long evictionCount, final int size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+        }
+
+        /**
+         * The number of lookups answered from the cache.
+         *
+         * @return the hit count
+         */
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        /**
+         * The number of lookups which had to be resolved from the delegate.
+         *
+         * @return the miss count
+         */
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * The number of values evicted because the cache was full.
+         *
+         * @return the eviction count
+         */
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * The number of values currently cached.
+         *
+         * @return the size of the cache
+         */
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Statistics(hits=%d, misses=%d, evictions=%d, size=%d)", hitCount, missCount, evictionCount, size);
+        }
+    }
+
+    private static final class CachedValue {
+        final String value;
+        final long expiresAt;
+
+        private CachedValue(final String value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0L && System.nanoTime() - expiresAt >= 0L;
+        }
+    }
+
+    /**
+     * A segment of the cache ordered by access so the least recently used value is evicted first.
+     * <p/>
+     * The generation is incremented by each invalidation. A value read from the delegate is only cached if no
+     * invalidation happened in the segment since the read started.
+     */
+    private static final class Segment {
+        private final Map<String, CachedValue> values;
+        private long generation;
+
+        private Segment(final int maximumSize, final LongAdder evictions) {
+            values = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+                private static final long serialVersionUID = -4587385623052236781L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CachedValue> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CachedValue get(final String key) {
+            return values.get(key);
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void put(final String key, final CachedValue value, final long expectedGeneration) {
+            if (generation == expectedGeneration) {
+                values.put(key, value);
+            }
+        }
+
+        synchronized void remove(final String key) {
+            generation++;
+            values.remove(key);
+        }
+
+        synchronized void clear() {
+            generation++;
+            values.clear();
+        }
+
+        synchronized int size() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.impl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.services.example.spi.PropertyChangeListener;
+import org.jboss.services.example.spi.PropertyResolver;
+
+/**
+ * The change listeners of a resolver.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ChangeListeners {
+
+    private final PropertyResolver resolver;
+    private final List<PropertyChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    ChangeListeners(final PropertyResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    boolean add(final PropertyChangeListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("The listener cannot be null");
+        }
+        listeners.add(listener);
+        return true;
+    }
+
+    void remove(final PropertyChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notifies the listeners on the calling thread. Every listener is notified even if a listener fails, the first
+     * failure is thrown once all the listeners have been notified.
+     *
+     * @param keys the keys which changed, the listeners are not notified if empty
+     */
+    void fire(final Set<String> keys) {
+        if (keys.isEmpty() || listeners.isEmpty()) {
+            return;
+        }
+        final Set<String> changed = Collections.unmodifiableSet(keys);
+        RuntimeException error = null;
+        for (PropertyChangeListener listener : listeners) {
+            try {
+                listener.propertiesChanged(resolver, changed);
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.jboss.services.annotation.ServiceProvider;
+import org.jboss.services.example.spi.PropertyChangeListener;
+import org.jboss.services.example.spi.PropertyResolver;
+import org.jboss.services.example.spi.PropertyResolverFactory;
+
+/**
+ * A resolver which layers other resolvers. The first layer which can resolve a key wins.
+ * <p/>
+ * By default the layers are all the other providers of the {@link PropertyResolver} service in priority order. The
+ * layers are discovered when the first property is resolved.
+ * <p/>
+ * Consecutive layers which can {@linkplain PropertyResolver#snapshot() enumerate} their properties are merged into a
+ * single index, so a lookup is a single probe rather than one probe per layer. Layers which cannot be enumerated are
+ * queried directly in their position. When a layer changes only that layer is {@linkplain #refresh(PropertyResolver)
+ * refreshed} and only the keys which changed are merged again.
+ * <p/>
+ * Not all the shipped layers can be enumerated by default. The {@link SystemPropertyResolver} is live unless
+ * {@linkplain SystemPropertyResolver#SNAPSHOT_PROPERTY snapshot mode} is enabled and the {@link
+ * MappedPropertyResolver} is never enumerated so the file is not copied into the heap. With the default layers a
+ * key which is not found therefore costs four probes, the environment, the system properties, the watched files and
+ * the mapped file. In snapshot mode the first three layers are merged and a miss costs two probes.
+ * <p/>
+ * Layers which {@linkplain PropertyResolver#addChangeListener(PropertyChangeListener) notify} changes are refreshed
+ * automatically with the keys of the change, without comparing the whole layer. Listeners of this resolver are then
+ * notified with the keys whose merged value changed.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@ServiceProvider(value = PropertyResolver.class, priority = CompositePropertyResolver.PRIORITY, generateHandle = true)
+public class CompositePropertyResolver implements PropertyResolver {
+
+    static final int PRIORITY = Integer.MAX_VALUE;
+
+    private final List<? extends PropertyResolver> resolvers;
+    // Guarded by this, the lookups are published as a new array after each change
+    private Layer[] layers;
+    private Group[] groups;
+    private volatile Lookup[] lookups;
+    private final ChangeListeners listeners = new ChangeListeners(this);
+    private final PropertyChangeListener layerListener = new PropertyChangeListener() {
+        @Override
+        public void propertiesChanged(final PropertyResolver resolver, final Set<String> keys) {
+            final Set<String> changed;
+            synchronized (CompositePropertyResolver.this) {
+                changed = refresh(indexOf(resolver), keys);
+            }
+            listeners.fire(changed);
+        }
+    };
+
+    /**
+     * Creates a new resolver which layers all the other providers of the {@link PropertyResolver} service.
+     */
+    public CompositePropertyResolver() {
+        resolvers = null;
+    }
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param resolvers the resolvers to layer, in precedence order
+     */
+    public CompositePropertyResolver(final List<? extends PropertyResolver> resolvers) {
+        this.resolvers = new ArrayList<>(resolvers);
+    }
+
+    @Override
+    public String resolve(final String key) {
+        for (Lookup lookup : getLookups()) {
+            final String value = lookup.resolve(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void resolveInto(final String[] keys, final String[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException(String.format("The output array length %d is less than the number of keys %d", out.length, keys.length));
+        }
+        final Lookup[] lookups = getLookups();
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = null;
+        }
+        int remaining = keys.length;
+        for (Lookup lookup : lookups) {
+            if (remaining == 0) {
+                break;
+            }
+            if (lookup.table != null) {
+                for (int i = 0; i < keys.length; i++) {
+                    if (out[i] == null && (out[i] = lookup.table.get(keys[i])) != null) {
+                        remaining--;
+                    }
+                }
+            } else {
+                // Send the unresolved keys to the layer in a single batch
+                final String[] unresolvedKeys = new String[remaining];
+                final int[] indexes = new int[remaining];
+                int len = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (out[i] == null) {
+                        unresolvedKeys[len] = keys[i];
+                        indexes[len++] = i;
+                    }
+                }
+                final String[] values = new String[len];
+                lookup.resolver.resolveInto(unresolvedKeys, values);
+                for (int i = 0; i < len; i++) {
+                    if (values[i] != null) {
+                        out[indexes[i]] = values[i];
+                        remaining--;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized Map<String, String> snapshot() {
+        getLookups();
+        final Map<String, String> result = new HashMap<>();
+        for (Group group : groups) {
+            // Live layers cannot be enumerated, so neither can this resolver
+            if (group.merged == null) {
+                return null;
+            }
+        }
+        for (int i = groups.length - 1; i >= 0; i--) {
+            result.putAll(groups[i].merged);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public boolean addChangeListener(final PropertyChangeListener listener) {
+        return listeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(final PropertyChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Refreshes a single layer. Only the keys of the layer which have changed since the layer was last refreshed are
+     * merged into the index.
+     *
+     * @param resolver the layer to refresh
+     *
+     * @throws IllegalArgumentException if the resolver is not a layer of this resolver
+     */
+    public void refresh(final PropertyResolver resolver) {
+        final Set<String> changed;
+        synchronized (this) {
+            getLookups();
+            changed = refresh(indexOf(resolver), null);
+        }
+        listeners.fire(changed);
+    }
+
+    /**
+     * Refreshes all the layers.
+     */
+    public void refresh() {
+        final Set<String> changed = new HashSet<>();
+        synchronized (this) {
+            if (lookups != null) {
+                for (int i = 0; i < layers.length; i++) {
+                    changed.addAll(refresh(i, null));
+                }
+            }
+        }
+        listeners.fire(changed);
+    }
+
+    /**
+     * Returns the layers of this resolver in precedence order.
+     *
+     * @return the layers
+     */
+    public synchronized List<PropertyResolver> getLayers() {
+        getLookups();
+        final List<PropertyResolver> result = new ArrayList<>(layers.length);
+        for (Layer layer : layers) {
+            result.add(layer.resolver);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private int indexOf(final PropertyResolver resolver) {
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i].resolver == resolver) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Resolver %s is not a layer of %s", resolver, this));
+    }
+
+    /**
+     * Refreshes the layer and returns the keys whose merged value changed. If the keys which changed in the layer are
+     * not known the snapshot of the layer is compared with the previous snapshot.
+     */
+    private Set<String> refresh(final int index, final Collection<String> keys) {
+        final Layer layer = layers[index];
+        final Map<String, String> previous = layer.properties;
+        final Map<String, String> current = layer.resolver.snapshot();
+        if (previous == null || current == null) {
+            if (previous != current) {
+                // The layer changed between live and enumerable which changes how the layers are grouped
+                layer.properties = current;
+                lookups = build(layers);
+                final Set<String> changed = new HashSet<>(previous == null ? current.keySet() : previous.keySet());
+                if (keys != null) {
+                    changed.addAll(keys);
+                }
+                return changed;
+            }
+            // A live layer is queried directly, only the reported keys can have changed
+            return keys == null ? Collections.<String>emptySet() : new HashSet<>(keys);
+        }
+        final Collection<String> candidates;
+        if (keys == null) {
+            final Set<String> diff = new HashSet<>();
+            for (Map.Entry<String, String> entry : current.entrySet()) {
+                if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                    diff.add(entry.getKey());
+                }
+            }
+            for (String key : previous.keySet()) {
+                if (!current.containsKey(key)) {
+                    diff.add(key);
+                }
+            }
+            candidates = diff;
+        } else {
+            candidates = keys;
+        }
+        layer.properties = current;
+        final Set<String> changed = new HashSet<>();
+        final Group group = groups[layer.group];
+        for (String key : candidates) {
+            String value = null;
+            for (int i = group.start; i < group.end && value == null; i++) {
+                value = layers[i].properties.get(key);
+            }
+            final String old = value == null ? group.merged.remove(key) : group.merged.put(key, value);
+            if (!Objects.equals(old, value)) {
+                changed.add(key);
+            }
+        }
+        if (!changed.isEmpty()) {
+            final Lookup[] lookups = this.lookups.clone();
+            lookups[layer.group] = new Lookup(StringTable.of(group.merged));
+            this.lookups = lookups;
+        }
+        return changed;
+    }
+
+    private Lookup[] getLookups() {
+        Lookup[] result = lookups;
+        if (result == null) {
+            synchronized (this) {
+                result = lookups;
+                if (result == null) {
+                    final List<? extends PropertyResolver> resolvers = this.resolvers == null ? findResolvers() : this.resolvers;
+                    final Layer[] layers = new Layer[resolvers.size()];
+                    for (int i = 0; i < layers.length; i++) {
+                        final PropertyResolver resolver = resolvers.get(i);
+                        layers[i] = new Layer(resolver, resolver.snapshot());
+                    }
+                    this.layers = layers;
+                    lookups = result = build(layers);
+                    for (Layer layer : layers) {
+                        layer.resolver.addChangeListener(layerListener);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private Lookup[] build(final Layer[] layers) {
+        final List<Group> groups = new ArrayList<>();
+        final List<Lookup> result = new ArrayList<>();
+        int i = 0;
+        while (i < layers.length) {
+            final int start = i;
+            final Group group;
+            if (layers[i].properties == null) {
+                group = new Group(start, ++i, null);
+                result.add(new Lookup(layers[start].resolver));
+            } else {
+                while (i < layers.length && layers[i].properties != null) {
+                    i++;
+                }
+                // Add the layers with the lowest precedence first so the higher precedence values replace them
+                final Map<String, String> merged = new HashMap<>();
+                for (int j = i - 1; j >= start; j--) {
+                    merged.putAll(layers[j].properties);
+                }
+                group = new Group(start, i, merged);
+                result.add(new Lookup(StringTable.of(merged)));
+            }
+            for (int j = group.start; j < group.end; j++) {
+                layers[j].group = groups.size();
+            }
+            groups.add(group);
+        }
+        this.groups = groups.toArray(new Group[groups.size()]);
+        return result.toArray(new Lookup[result.size()]);
+    }
+
+    private List<PropertyResolver> findResolvers() {
+        final List<PropertyResolver> result = new ArrayList<>();
+        for (PropertyResolver resolver : PropertyResolverFactory.getAll()) {
+            if (!(resolver instanceof CompositePropertyResolver)) {
+                result.add(resolver);
+            }
+        }
+        return result;
+    }
+
+    private static final class Layer {
+        final PropertyResolver resolver;
+        Map<String, String> properties;
+        int group;
+
+        private Layer(final PropertyResolver resolver, final Map<String, String> properties) {
+            this.resolver = resolver;
+            this.properties = properties;
+        }
+    }
+
+    private static final class Group {
+        final int start;
+        final int end;
+        final Map<String, String> merged;
+
+        private Group(final int start, final int end, final Map<String, String> merged) {
+            this.start = start;
+            this.end = end;
+            this.merged = merged;
+        }
+    }
+
+    private static final class Lookup {
+        final StringTable table;
+        final PropertyResolver resolver;
+
+        private Lookup(final StringTable table) {
+            this.table = table;
+            this.resolver = null;
+        }
+
+        private Lookup(final PropertyResolver resolver) {
+            this.table = null;
+            this.resolver = resolver;
+        }
+
+        String resolve(final String key) {
+            return table == null ? resolver.resolve(key) : table.get(key);
+        }
+    }
+}
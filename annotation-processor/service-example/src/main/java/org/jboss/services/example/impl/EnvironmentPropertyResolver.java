@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.util.Map;
+
+import org.jboss.services.annotation.ServiceProvider;
+import org.jboss.services.example.spi.PropertyResolver;
+
+/**
+ * Resolves properties from the {@linkplain System#getenv() environment}. The environment cannot change while the JVM
+ * is running so the values are copied into an immutable table when the resolver is created.
+ * <p/>
+ * Environment variables take precedence over system properties when the resolvers are layered in a {@link
+ * CompositePropertyResolver}.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@ServiceProvider(value = PropertyResolver.class, priority = EnvironmentPropertyResolver.PRIORITY)
+public class EnvironmentPropertyResolver implements PropertyResolver {
+
+    static final int PRIORITY = 100;
+
+    private final Map<String, String> env;
+    private final StringTable table;
+
+    public EnvironmentPropertyResolver() {
+        env = System.getenv();
+        table = StringTable.of(env);
+    }
+
+    @Override
+    public String resolve(final String key) {
+        return table.get(key);
+    }
+
+    @Override
+    public Map<String, String> snapshot() {
+        return env;
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.jboss.services.annotation.ServiceProvider;
+import org.jboss.services.example.spi.PropertyResolver;
+
+/**
+ * Resolves properties from a memory-mapped properties file. The file is read with the same rules as {@link
+ * java.util.Properties#load(java.io.InputStream)}, including the ISO 8859-1 encoding, escapes and line continuations.
+ * Where the line reader of Java 8 differs, for a comment following a line continuation without content, the rules of
+ * Java 9 and later are used.
+ * <p/>
+ * The file is not loaded into the heap. The first lookup maps the file read-only and scans it once to build an index
+ * of key hashes to offsets held in two {@code int} arrays. Keys are compared and values are decoded directly from the
+ * mapped file on each lookup, so the heap used is proportional to the number of keys rather than the size of the file.
+ * Creating the resolver does not touch the file at all.
+ * <p/>
+ * The file used by resolvers created with the no-arg constructor is defined with the {@value #FILE_PROPERTY} system
+ * property. If the property is not set the resolver does not resolve any properties. Values should be cached with a
+ * {@link CachingPropertyResolver} if the same keys are resolved frequently.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@ServiceProvider(value = PropertyResolver.class, priority = MappedPropertyResolver.PRIORITY)
+public class MappedPropertyResolver implements PropertyResolver {
+
+    /**
+     * The system property which defines the file used by resolvers created with the no-arg constructor.
+     */
+    public static final String FILE_PROPERTY = "org.jboss.services.example.resolver.file";
+
+    static final int PRIORITY = -100;
+
+    private final Path path;
+    private volatile Index index;
+
+    /**
+     * Creates a new resolver for the file defined by the {@value #FILE_PROPERTY} system property.
+     */
+    public MappedPropertyResolver() {
+        final String file = System.getProperty(FILE_PROPERTY);
+        path = file == null ? null : Paths.get(file);
+    }
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param path the properties file
+     */
+    public MappedPropertyResolver(final Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("The path cannot be null");
+        }
+        this.path = path;
+    }
+
+    @Override
+    public String resolve(final String key) {
+        return getIndex().get(key);
+    }
+
+    /**
+     * Returns the number of keys in the file. Keys which are defined more than once are only counted once.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return getIndex().size;
+    }
+
+    /**
+     * Returns the properties file.
+     *
+     * @return the file or {@code null} if no file was defined
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    private Index getIndex() {
+        Index result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    index = result = (path == null ? Index.EMPTY : Index.create(map(path)));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer map(final Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException(String.format("File %s is larger than %d bytes", path, Integer.MAX_VALUE));
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not map file %s", path), e);
+        }
+    }
+
+    private static boolean isWhitespace(final int c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    private static boolean isLineEnd(final int c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isKeyEnd(final int c) {
+        return c == '=' || c == ':' || isWhitespace(c);
+    }
+
+    private static int spread(final int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * An open addressing table of key hashes to the offset of the key in the file.
+     */
+    private static final class Index {
+        static final Index EMPTY = new Index(ByteBuffer.allocate(0), new int[0], new int[0], 0);
+
+        private final ByteBuffer buffer;
+        private final int[] hashes;
+        // The offset of the key plus one so zero marks an empty slot
+        private final int[] offsets;
+        private final int mask;
+        private final int size;
+
+        private Index(final ByteBuffer buffer, final int[] hashes, final int[] offsets, final int size) {
+            this.buffer = buffer;
+            this.hashes = hashes;
+            this.offsets = offsets;
+            this.mask = hashes.length - 1;
+            this.size = size;
+        }
+
+        static Index create(final ByteBuffer buffer) {
+            // Collect the hash and offset of each key in file order
+            int[] keyHashes = new int[256];
+            int[] keyOffsets = new int[256];
+            int count = 0;
+            final Cursor cursor = new Cursor(buffer);
+            final int limit = buffer.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int c = buffer.get(pos) & 0xFF;
+                if (isWhitespace(c) || isLineEnd(c)) {
+                    pos++;
+                    continue;
+                }
+                if (c == '\\' && pos + 2 < limit && isLineEnd(buffer.get(pos + 1) & 0xFF)) {
+                    // A continuation before any content, the next line may still be blank or a comment. Like
+                    // Properties.load() a continuation ending the file defines an empty key.
+                    pos += 2;
+                    continue;
+                }
+                if (c == '#' || c == '!') {
+                    // Comment lines cannot be continued
+                    while (pos < limit && !isLineEnd(buffer.get(pos) & 0xFF)) {
+                        pos++;
+                    }
+                    continue;
+                }
+                cursor.pos = pos;
+                int hash = 0;
+                while ((c = cursor.next()) >= 0 && (cursor.escaped || !isKeyEnd(c))) {
+                    hash = 31 * hash + c;
+                }
+                if (count == keyHashes.length) {
+                    keyHashes = Arrays.copyOf(keyHashes, count << 1);
+                    keyOffsets = Arrays.copyOf(keyOffsets, count << 1);
+                }
+                keyHashes[count] = spread(hash);
+                keyOffsets[count++] = pos;
+                pos = c < 0 ? cursor.pos : cursor.skipLine();
+            }
+
+            // Keep the load factor at or below 0.5 so probe sequences stay short
+            int capacity = 2;
+            while (capacity < count * 2) {
+                capacity <<= 1;
+            }
+            final int mask = capacity - 1;
+            final int[] hashes = new int[capacity];
+            final int[] offsets = new int[capacity];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                final int hash = keyHashes[i];
+                int index = hash & mask;
+                String key = null;
+                while (offsets[index] != 0) {
+                    if (hashes[index] == hash) {
+                        // Only decode the key when the hashes collide, the last definition of a key wins
+                        if (key == null) {
+                            key = cursor.readKey(keyOffsets[i]);
+                        }
+                        if (cursor.matches(offsets[index] - 1, key)) {
+                            break;
+                        }
+                    }
+                    index = (index + 1) & mask;
+                }
+                if (offsets[index] == 0) {
+                    size++;
+                }
+                hashes[index] = hash;
+                offsets[index] = keyOffsets[i] + 1;
+            }
+            return new Index(buffer, hashes, offsets, size);
+        }
+
+        String get(final String key) {
+            if (size == 0) {
+                return null;
+            }
+            final int hash = spread(key.hashCode());
+            int index = hash & mask;
+            int offset;
+            Cursor cursor = null;
+            while ((offset = offsets[index]) != 0) {
+                if (hashes[index] == hash) {
+                    if (cursor == null) {
+                        cursor = new Cursor(buffer);
+                    }
+                    if (cursor.matches(offset - 1, key)) {
+                        return cursor.readValue();
+                    }
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the characters of a logical line from the file. Escapes are decoded and line continuations are skipped.
+     * Only absolute reads are used so the buffer can be shared between threads.
+     */
+    private static final class Cursor {
+        private final ByteBuffer buffer;
+        private final int limit;
+        int pos;
+        boolean escaped;
+        // The character which ended the last matched key or -1 if the line ended
+        int terminator;
+
+        private Cursor(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+        }
+
+        /**
+         * Reads the next character of the logical line.
+         *
+         * @return the character or -1 if the end of the line was reached
+         */
+        int next() {
+            while (pos < limit) {
+                final int c = buffer.get(pos) & 0xFF;
+                if (isLineEnd(c)) {
+                    return -1;
+                }
+                if (c != '\\') {
+                    pos++;
+                    escaped = false;
+                    return c;
+                }
+                if (++pos == limit) {
+                    return -1;
+                }
+                final int e = buffer.get(pos++) & 0xFF;
+                if (isLineEnd(e)) {
+                    // A line continuation, skip the line terminator and the leading whitespace of the next line
+                    if (e == '\r' && pos < limit && buffer.get(pos) == '\n') {
+                        pos++;
+                    }
+                    while (pos < limit && isWhitespace(buffer.get(pos) & 0xFF)) {
+                        pos++;
+                    }
+                    continue;
+                }
+                escaped = true;
+                switch (e) {
+                    case 't':
+                        return '\t';
+                    case 'n':
+                        return '\n';
+                    case 'r':
+                        return '\r';
+                    case 'f':
+                        return '\f';
+                    case 'u':
+                        return readUnicode();
+                    default:
+                        return e;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Skips the rest of the logical line without decoding it.
+         *
+         * @return the position after the line
+         */
+        int skipLine() {
+            while (pos < limit) {
+                final int c = buffer.get(pos) & 0xFF;
+                if (isLineEnd(c)) {
+                    break;
+                }
+                // Skipping the escaped character also skips the terminator of a continued line
+                pos += c == '\\' ? 2 : 1;
+                if (c == '\\' && pos < limit && buffer.get(pos - 1) == '\r' && buffer.get(pos) == '\n') {
+                    pos++;
+                }
+            }
+            return pos;
+        }
+
+        boolean matches(final int offset, final String key) {
+            pos = offset;
+            final int len = key.length();
+            for (int i = 0; i < len; i++) {
+                final int c = next();
+                if (c != key.charAt(i) || (!escaped && isKeyEnd(c))) {
+                    return false;
+                }
+            }
+            final int c = next();
+            terminator = c;
+            return c < 0 || (!escaped && isKeyEnd(c));
+        }
+
+        String readKey(final int offset) {
+            pos = offset;
+            final StringBuilder result = new StringBuilder();
+            int c;
+            while ((c = next()) >= 0 && (escaped || !isKeyEnd(c))) {
+                result.append((char) c);
+            }
+            return result.toString();
+        }
+
+        /**
+         * Reads the value of the key the cursor was last {@linkplain #matches(int, String) matched} against.
+         *
+         * @return the value
+         */
+        String readValue() {
+            if (terminator < 0) {
+                return "";
+            }
+            skipWhitespace();
+            // If the key was ended by whitespace an '=' or ':' may still separate the key and value
+            if (terminator != '=' && terminator != ':' && pos < limit) {
+                final int c = buffer.get(pos) & 0xFF;
+                if (c == '=' || c == ':') {
+                    pos++;
+                    skipWhitespace();
+                }
+            }
+            final StringBuilder result = new StringBuilder();
+            int c;
+            while ((c = next()) >= 0) {
+                result.append((char) c);
+            }
+            return result.toString();
+        }
+
+        private void skipWhitespace() {
+            while (pos < limit) {
+                final int c = buffer.get(pos) & 0xFF;
+                if (isWhitespace(c)) {
+                    pos++;
+                } else if (c == '\\' && pos + 1 < limit && isLineEnd(buffer.get(pos + 1) & 0xFF)) {
+                    // A line continuation between the key and value
+                    pos += 2;
+                    if (buffer.get(pos - 1) == '\r' && pos < limit && buffer.get(pos) == '\n') {
+                        pos++;
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+
+        private int readUnicode() {
+            if (pos + 4 > limit) {
+                throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+            }
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                final int digit = Character.digit(buffer.get(pos++) & 0xFF, 16);
+                if (digit < 0) {
+                    throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                }
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
+    }
+}
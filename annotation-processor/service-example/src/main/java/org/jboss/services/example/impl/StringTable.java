@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An immutable string to string hash table using open addressing with linear probing. Lookups do not allocate and do
+ * not require any locking.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class StringTable {
+
+    private final String[] keys;
+    private final String[] values;
+    private final int[] hashes;
+    private final int mask;
+    private final int size;
+
+    private StringTable(final String[] names, final String[] entries, final int length) {
+        // Keep the load factor at or below 0.5 so probe sequences stay short
+        int capacity = 2;
+        while (capacity < length * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new String[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (add(names[i], entries[i])) {
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Creates a table from the map. Entries with a {@code null} key or value are ignored.
+     *
+     * @param map the map to copy
+     *
+     * @return the new table
+     */
+    static StringTable of(final Map<String, String> map) {
+        final int max = map.size();
+        final String[] names = new String[max];
+        final String[] entries = new String[max];
+        int length = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            // Ignore entries added concurrently after the size was read
+            if (length == max) {
+                break;
+            }
+            if (entry.getKey() != null && entry.getValue() != null) {
+                names[length] = entry.getKey();
+                entries[length++] = entry.getValue();
+            }
+        }
+        return new StringTable(names, entries, length);
+    }
+
+    /**
+     * Creates a table from the string keys and values of the properties.
+     *
+     * @param properties the properties to copy
+     *
+     * @return the new table
+     */
+    static StringTable of(final Properties properties) {
+        // Copy the names first as the properties may be modified concurrently
+        final String[] names = properties.stringPropertyNames().toArray(new String[0]);
+        final String[] entries = new String[names.length];
+        int length = 0;
+        for (String name : names) {
+            final String value = properties.getProperty(name);
+            if (value != null) {
+                names[length] = name;
+                entries[length++] = value;
+            }
+        }
+        return new StringTable(names, entries, length);
+    }
+
+    /**
+     * Returns the value for the key.
+     *
+     * @param key the key
+     *
+     * @return the value or {@code null} if the key is not in the table
+     */
+    String get(final String key) {
+        final int hash = hash(key);
+        int index = hash & mask;
+        String candidate;
+        while ((candidate = keys[index]) != null) {
+            if (hashes[index] == hash && (candidate == key || candidate.equals(key))) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * The number of entries in the table.
+     *
+     * @return the size of the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copies the entries of the table into an unmodifiable map.
+     *
+     * @return the entries of the table
+     */
+    Map<String, String> toMap() {
+        final Map<String, String> result = new HashMap<>(Math.max((int) (size / .75f) + 1, 16));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                result.put(keys[i], values[i]);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private boolean add(final String key, final String value) {
+        final int hash = hash(key);
+        int index = hash & mask;
+        String candidate;
+        while ((candidate = keys[index]) != null) {
+            if (hashes[index] == hash && candidate.equals(key)) {
+                values[index] = value;
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        hashes[index] = hash;
+        return true;
+    }
+
+    private static int hash(final String key) {
+        // Spread the higher bits as the table size is a power of two
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -19,16 +19,105 @@
 
 package org.jboss.services.example.impl;
 
+import java.util.Map;
+import java.util.Properties;
+
 import org.jboss.services.annotation.ServiceProvider;
 import org.jboss.services.example.spi.PropertyResolver;
 
 /**
+ * Resolves properties from the {@linkplain System#getProperties() system properties}.
+ * <p/>
+ * In snapshot mode the system properties are copied into an immutable table when the resolver is created. Lookups
+ * are then lock-free and changes to the system properties are only visible after the snapshot is {@linkplain
+ * #refresh() refreshed}. Snapshot mode is enabled with the {@value #SNAPSHOT_PROPERTY} system property.
+ *
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 @ServiceProvider(PropertyResolver.class)
 public class SystemPropertyResolver implements PropertyResolver {
+
+    /**
+     * The system property used to enable snapshot mode for resolvers created with the no-arg constructor.
+     */
+    public static final String SNAPSHOT_PROPERTY = "org.jboss.services.example.resolver.snapshot";
+
+    private final boolean snapshot;
+    private volatile StringTable table;
+
+    /**
+     * Creates a new resolver. Snapshot mode is enabled if the {@value #SNAPSHOT_PROPERTY} system property is set to
+     * {@code true}.
+     */
+    public SystemPropertyResolver() {
+        this(Boolean.getBoolean(SNAPSHOT_PROPERTY));
+    }
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param snapshot {@code true} to resolve properties from a snapshot of the system properties
+     */
+    public SystemPropertyResolver(final boolean snapshot) {
+        this.snapshot = snapshot;
+        if (snapshot) {
+            table = StringTable.of(System.getProperties());
+        }
+    }
+
     @Override
     public String resolve(final String key) {
-        return System.getProperty(key);
+        final StringTable table = this.table;
+        return table == null ? System.getProperty(key) : table.get(key);
+    }
+
+    @Override
+    public void resolveInto(final String[] keys, final String[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException(String.format("The output array length %d is less than the number of keys %d", out.length, keys.length));
+        }
+        final StringTable table = this.table;
+        if (table == null) {
+            // Only check access to the system properties once for the whole batch
+            final Properties properties = System.getProperties();
+            for (int i = 0; i < keys.length; i++) {
+                out[i] = properties.getProperty(keys[i]);
+            }
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                out[i] = table.get(keys[i]);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only resolvers in snapshot mode can be enumerated. Otherwise the system properties may change at any time and
+     * {@code null} is returned.
+     */
+    @Override
+    public Map<String, String> snapshot() {
+        final StringTable table = this.table;
+        return table == null ? null : table.toMap();
+    }
+
+    /**
+     * Replaces the snapshot with a new copy of the current system properties. If this resolver is not in snapshot
+     * mode this is a no-op.
+     */
+    public void refresh() {
+        if (snapshot) {
+            table = StringTable.of(System.getProperties());
+        }
+    }
+
+    /**
+     * Indicates whether this resolver resolves properties from a snapshot.
+     *
+     * @return {@code true} if snapshot mode is enabled, otherwise {@code false}
+     */
+    public boolean isSnapshot() {
+        return snapshot;
     }
 }
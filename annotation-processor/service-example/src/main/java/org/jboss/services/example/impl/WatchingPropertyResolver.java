@@ -0,0 +1,333 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.services.annotation.ServiceProvider;
+import org.jboss.services.example.spi.PropertyChangeListener;
+import org.jboss.services.example.spi.PropertyResolver;
+
+/**
+ * Resolves properties from properties files which are watched for changes.
+ * <p/>
+ * The files are loaded when the first property is resolved and a daemon thread then watches the directories of the
+ * files with a {@link WatchService}. When a file changes only that file is parsed again. The new properties are
+ * compared with the previous properties of the file and only the keys which changed are applied to a copy of the
+ * current snapshot. The new snapshot is published atomically, lookups never lock and never see a partially applied
+ * change. {@linkplain #addChangeListener(PropertyChangeListener) Listeners} are then notified with the keys which
+ * changed.
+ * <p/>
+ * If a key is defined in more than one file the file listed first wins. A file which does not exist, or is deleted,
+ * has no properties. The directory of a file must exist when the files are loaded for the file to be watched. The
+ * watching thread is stopped by {@linkplain #close() closing} the resolver.
+ * <p/>
+ * The files used by resolvers created with the no-arg constructor are defined with the {@value #FILES_PROPERTY}
+ * system property as a list separated by the {@linkplain File#pathSeparator path separator}. If the property is not
+ * set the resolver does not resolve any properties.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+@ServiceProvider(value = PropertyResolver.class, priority = WatchingPropertyResolver.PRIORITY)
+public class WatchingPropertyResolver implements PropertyResolver, Closeable {
+
+    /**
+     * The system property which defines the files used by resolvers created with the no-arg constructor.
+     */
+    public static final String FILES_PROPERTY = "org.jboss.services.example.resolver.watch";
+
+    static final int PRIORITY = -50;
+
+    // Changes arriving within this time are applied together, editors often write a file more than once when saving
+    private static final long SETTLE_MILLIS = 50L;
+
+    private final List<Path> files;
+    private final ChangeListeners listeners = new ChangeListeners(this);
+    private volatile Snapshot snapshot;
+    // Guarded by this
+    private WatchService watchService;
+    private boolean closed;
+
+    /**
+     * Creates a new resolver for the files defined by the {@value #FILES_PROPERTY} system property.
+     */
+    public WatchingPropertyResolver() {
+        final String value = System.getProperty(FILES_PROPERTY);
+        final List<Path> files = new ArrayList<>();
+        if (value != null) {
+            for (String file : value.split(File.pathSeparator)) {
+                if (!file.trim().isEmpty()) {
+                    files.add(Paths.get(file.trim()).toAbsolutePath().normalize());
+                }
+            }
+        }
+        this.files = Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param files the properties files in precedence order
+     */
+    public WatchingPropertyResolver(final List<Path> files) {
+        final List<Path> paths = new ArrayList<>(files.size());
+        for (Path file : files) {
+            paths.add(file.toAbsolutePath().normalize());
+        }
+        this.files = Collections.unmodifiableList(paths);
+    }
+
+    @Override
+    public String resolve(final String key) {
+        return getSnapshot().table.get(key);
+    }
+
+    @Override
+    public Map<String, String> snapshot() {
+        return getSnapshot().properties;
+    }
+
+    @Override
+    public boolean addChangeListener(final PropertyChangeListener listener) {
+        return listeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(final PropertyChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Parses all the files again and applies any changes. This is not required for files which are watched, but may
+     * be used where the file system only detects changes periodically.
+     */
+    public void refresh() {
+        getSnapshot();
+        reload(files);
+    }
+
+    /**
+     * Returns the watched files in precedence order.
+     *
+     * @return the files
+     */
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    /**
+     * Stops watching the files. The properties loaded so far can still be resolved.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignore) {
+            }
+            watchService = null;
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot result = snapshot;
+        if (result == null) {
+            synchronized (this) {
+                result = snapshot;
+                if (result == null) {
+                    final Map<Path, Map<String, String>> fileProperties = new LinkedHashMap<>();
+                    for (Path file : files) {
+                        fileProperties.put(file, load(file));
+                    }
+                    final Map<String, String> properties = new HashMap<>();
+                    for (int i = files.size() - 1; i >= 0; i--) {
+                        properties.putAll(fileProperties.get(files.get(i)));
+                    }
+                    snapshot = result = new Snapshot(fileProperties, properties);
+                    if (!files.isEmpty() && !closed) {
+                        watch();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void reload(final Collection<Path> changedFiles) {
+        final Set<String> changed = new HashSet<>();
+        synchronized (this) {
+            final Snapshot current = snapshot;
+            Map<Path, Map<String, String>> fileProperties = null;
+            final Set<String> candidates = new HashSet<>();
+            for (Path file : changedFiles) {
+                final Map<String, String> previous = current.files.get(file);
+                final Map<String, String> properties = load(file);
+                if (previous.equals(properties)) {
+                    continue;
+                }
+                // Only the keys of this file which differ can change the merged properties
+                for (Map.Entry<String, String> entry : properties.entrySet()) {
+                    if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                        candidates.add(entry.getKey());
+                    }
+                }
+                for (String key : previous.keySet()) {
+                    if (!properties.containsKey(key)) {
+                        candidates.add(key);
+                    }
+                }
+                if (fileProperties == null) {
+                    fileProperties = new LinkedHashMap<>(current.files);
+                }
+                fileProperties.put(file, properties);
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+            final Map<String, String> properties = new HashMap<>(current.properties);
+            for (String key : candidates) {
+                String value = null;
+                for (int i = 0; i < files.size() && value == null; i++) {
+                    value = fileProperties.get(files.get(i)).get(key);
+                }
+                final String old = value == null ? properties.remove(key) : properties.put(key, value);
+                if (!Objects.equals(old, value)) {
+                    changed.add(key);
+                }
+            }
+            snapshot = new Snapshot(fileProperties, properties);
+        }
+        listeners.fire(changed);
+    }
+
+    private void watch() {
+        try {
+            final WatchService watchService = files.get(0).getFileSystem().newWatchService();
+            final Map<WatchKey, Path> directories = new HashMap<>();
+            for (Path file : files) {
+                final Path directory = file.getParent();
+                if (directory != null && Files.isDirectory(directory) && !directories.containsValue(directory)) {
+                    directories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), directory);
+                }
+            }
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processEvents(watchService, directories);
+                }
+            }, "property-watcher");
+            thread.setDaemon(true);
+            thread.start();
+            this.watchService = watchService;
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not watch files %s", files), e);
+        }
+    }
+
+    private void processEvents(final WatchService watchService, final Map<WatchKey, Path> directories) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                final Set<Path> changed = new LinkedHashSet<>();
+                while (key != null) {
+                    final Path directory = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost, check every file
+                            changed.addAll(files);
+                        } else if (directory != null) {
+                            final Path file = directory.resolve((Path) event.context());
+                            if (files.contains(file)) {
+                                changed.add(file);
+                            }
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    try {
+                        reload(changed);
+                    } catch (RuntimeException e) {
+                        // Report the failure and keep watching, the next change may fix the file
+                        final Thread thread = Thread.currentThread();
+                        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignore) {
+            // The resolver was closed
+        }
+    }
+
+    private static Map<String, String> load(final Path file) {
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return Collections.emptyMap();
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Could not read file %s", file), e);
+        }
+        final Map<String, String> result = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            result.put(name, properties.getProperty(name));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static final class Snapshot {
+        final Map<Path, Map<String, String>> files;
+        final Map<String, String> properties;
+        final StringTable table;
+
+        private Snapshot(final Map<Path, Map<String, String>> files, final Map<String, String> properties) {
+            this.files = files;
+            this.properties = Collections.unmodifiableMap(properties);
+            this.table = StringTable.of(properties);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.spi;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+/**
+ * Parses property values for the typed accessors of {@link PropertyResolver}.
+ * <p/>
+ * Numbers and booleans are parsed on each call, looking up a cached value costs as much as parsing them. Durations
+ * are cached in a bounded direct-mapped table keyed by the raw string, not by the property key, so a changed property
+ * value is never answered from a stale entry and no invalidation is required. An entry is replaced when another value
+ * hashes to the same slot. Entries are immutable so the table is read and written without locking and a cache hit
+ * does not allocate.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+final class ParsedValues {
+
+    private static final int SIZE = 512;
+    private static final int MASK = SIZE - 1;
+
+    private static final DurationEntry[] DURATIONS = new DurationEntry[SIZE];
+
+    private ParsedValues() {
+    }
+
+    static int parseInt(final String key, final String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "an int", e);
+        }
+    }
+
+    static long parseLong(final String key, final String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw invalid(key, value, "a long", e);
+        }
+    }
+
+    static boolean parseBoolean(final String key, final String value) {
+        // Comparing against the two constants is as cheap as a cache lookup
+        if ("true".equalsIgnoreCase(value)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        final String trimmed = value.trim();
+        if ("true".equalsIgnoreCase(trimmed)) {
+            return true;
+        }
+        if ("false".equalsIgnoreCase(trimmed)) {
+            return false;
+        }
+        throw invalid(key, value, "a boolean", null);
+    }
+
+    static Duration parseDuration(final String key, final String value) {
+        final int index = index(value);
+        final DurationEntry entry = DURATIONS[index];
+        if (entry != null && entry.raw.equals(value)) {
+            return entry.value;
+        }
+        final Duration result;
+        try {
+            result = toDuration(value.trim());
+        } catch (RuntimeException e) {
+            throw invalid(key, value, "a duration", e);
+        }
+        DURATIONS[index] = new DurationEntry(value, result);
+        return result;
+    }
+
+    /**
+     * Parses an ISO-8601 duration, such as {@code PT30S}, or a number followed by an optional unit of {@code ns},
+     * {@code us}, {@code ms}, {@code s}, {@code m}, {@code h} or {@code d}. A number without a unit is in
+     * milliseconds.
+     */
+    private static Duration toDuration(final String value) {
+        final int start = !value.isEmpty() && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        if (value.length() > start && (value.charAt(start) == 'P' || value.charAt(start) == 'p')) {
+            return Duration.parse(value);
+        }
+        int end = value.length();
+        while (end > 0 && Character.isLetter(value.charAt(end - 1))) {
+            end--;
+        }
+        final long amount = Long.parseLong(value.substring(0, end).trim());
+        final ChronoUnit unit;
+        switch (value.substring(end).toLowerCase(Locale.ROOT)) {
+            case "":
+            case "ms":
+                unit = ChronoUnit.MILLIS;
+                break;
+            case "ns":
+                unit = ChronoUnit.NANOS;
+                break;
+            case "us":
+                unit = ChronoUnit.MICROS;
+                break;
+            case "s":
+                unit = ChronoUnit.SECONDS;
+                break;
+            case "m":
+                unit = ChronoUnit.MINUTES;
+                break;
+            case "h":
+                unit = ChronoUnit.HOURS;
+                break;
+            case "d":
+                unit = ChronoUnit.DAYS;
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown time unit %s", value.substring(end)));
+        }
+        return Duration.of(amount, unit);
+    }
+
+    private static int index(final String value) {
+        int h = value.hashCode();
+        h ^= (h >>> 16);
+        return h & MASK;
+    }
+
+    private static IllegalArgumentException invalid(final String key, final String value, final String type, final Exception cause) {
+        return new IllegalArgumentException(String.format("The value '%s' of property %s is not %s", value, key, type), cause);
+    }
+
+    private static final class DurationEntry {
+        final String raw;
+        final Duration value;
+
+        private DurationEntry(final String raw, final Duration value) {
+            this.raw = raw;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.spi;
+
+import java.util.Set;
+
+/**
+ * A listener notified when the properties of a {@link PropertyResolver} change.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public interface PropertyChangeListener {
+
+    /**
+     * Invoked after the properties of the resolver have changed. The new values are already visible when the listener
+     * is invoked. The keys include properties which were added, changed or removed.
+     *
+     * @param resolver the resolver whose properties changed
+     * @param keys     the keys which changed, never empty
+     */
+    void propertiesChanged(PropertyResolver resolver, Set<String> keys);
+}
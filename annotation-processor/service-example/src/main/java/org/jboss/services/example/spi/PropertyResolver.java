@@ -19,10 +19,192 @@
 
 package org.jboss.services.example.spi;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
  */
 public interface PropertyResolver {
 
     String resolve(String key);
+
+    /**
+     * Returns a snapshot of all the properties this resolver can resolve. The snapshot must not be modified.
+     * <p/>
+     * Resolvers which cannot enumerate their properties, or whose properties may change without notice, return
+     * {@code null} which is the default. Composite resolvers can merge the snapshots of their layers into a single
+     * index, see {@link org.jboss.services.example.impl.CompositePropertyResolver}.
+     *
+     * @return the properties or {@code null} if the properties cannot be enumerated
+     */
+    default Map<String, String> snapshot() {
+        return null;
+    }
+
+    /**
+     * Adds a listener notified when the properties of this resolver change. Caches can use the keys of the change to
+     * invalidate only the affected values.
+     * <p/>
+     * Resolvers whose properties never change, or which cannot detect changes, do not support listeners which is the
+     * default.
+     *
+     * @param listener the listener to add
+     *
+     * @return {@code true} if the listener was added, {@code false} if this resolver does not notify listeners
+     */
+    default boolean addChangeListener(final PropertyChangeListener listener) {
+        return false;
+    }
+
+    /**
+     * Removes a listener added with {@link #addChangeListener(PropertyChangeListener)}.
+     *
+     * @param listener the listener to remove
+     */
+    default void removeChangeListener(final PropertyChangeListener listener) {
+    }
+
+    /**
+     * Resolves all the keys. Keys which cannot be resolved are not included in the result.
+     * <p/>
+     * The default implementation delegates to {@link #resolveInto(String[], String[])}.
+     *
+     * @param keys the keys to resolve
+     *
+     * @return the resolved keys mapped to their values in the iteration order of the keys
+     */
+    default Map<String, String> resolveAll(final Collection<String> keys) {
+        final String[] names = keys.toArray(new String[keys.size()]);
+        final String[] values = new String[names.length];
+        resolveInto(names, values);
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (values[i] != null) {
+                result.put(names[i], values[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves all the keys into the output array. The value for each key is stored at the same index in the output
+     * array, or {@code null} if the key cannot be resolved.
+     * <p/>
+     * The default implementation invokes {@link #resolve(String)} for each key. Resolvers which can answer a batch of
+     * keys in a single pass or a single round-trip should override this method.
+     *
+     * @param keys the keys to resolve
+     * @param out  the array to store the values in
+     *
+     * @throws IllegalArgumentException if the output array is shorter than the keys array
+     */
+    default void resolveInto(final String[] keys, final String[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException(String.format("The output array length %d is less than the number of keys %d", out.length, keys.length));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = resolve(keys[i]);
+        }
+    }
+
+    /**
+     * Resolves the value of the key as an {@code int}.
+     *
+     * @param key          the key to resolve
+     * @param defaultValue the value returned if the key cannot be resolved
+     *
+     * @return the resolved value or the default value
+     *
+     * @throws IllegalArgumentException if the value is not an {@code int}
+     */
+    default int resolveInt(final String key, final int defaultValue) {
+        final String value = resolve(key);
+        return value == null ? defaultValue : ParsedValues.parseInt(key, value);
+    }
+
+    /**
+     * Resolves the value of the key as a {@code long}.
+     *
+     * @param key          the key to resolve
+     * @param defaultValue the value returned if the key cannot be resolved
+     *
+     * @return the resolved value or the default value
+     *
+     * @throws IllegalArgumentException if the value is not a {@code long}
+     */
+    default long resolveLong(final String key, final long defaultValue) {
+        final String value = resolve(key);
+        return value == null ? defaultValue : ParsedValues.parseLong(key, value);
+    }
+
+    /**
+     * Resolves the value of the key as a {@code boolean}. The value must be {@code true} or {@code false}, ignoring
+     * case.
+     *
+     * @param key          the key to resolve
+     * @param defaultValue the value returned if the key cannot be resolved
+     *
+     * @return the resolved value or the default value
+     *
+     * @throws IllegalArgumentException if the value is not a {@code boolean}
+     */
+    default boolean resolveBoolean(final String key, final boolean defaultValue) {
+        final String value = resolve(key);
+        return value == null ? defaultValue : ParsedValues.parseBoolean(key, value);
+    }
+
+    /**
+     * Resolves the value of the key as a duration. The value may be an ISO-8601 duration, for example {@code PT30S},
+     * or a number followed by an optional unit of {@code ns}, {@code us}, {@code ms}, {@code s}, {@code m}, {@code h}
+     * or {@code d}. A number without a unit is in milliseconds.
+     * <p/>
+     * Parsed durations are cached by their string value in a bounded cache shared by all resolvers. Repeated reads of
+     * an unchanged value do not parse or allocate. A changed value is always parsed again, no invalidation is
+     * required.
+     *
+     * @param key          the key to resolve
+     * @param defaultValue the value returned if the key cannot be resolved
+     *
+     * @return the resolved value or the default value
+     *
+     * @throws IllegalArgumentException if the value is not a duration
+     */
+    default Duration resolveDuration(final String key, final Duration defaultValue) {
+        final String value = resolve(key);
+        return value == null ? defaultValue : ParsedValues.parseDuration(key, value);
+    }
+
+    /**
+     * Resolves the value of the key and expands any placeholders in the value, see {@link PropertyTemplate} for the
+     * syntax.
+     *
+     * @param key the key to resolve
+     *
+     * @return the expanded value or {@code null} if the key cannot be resolved
+     *
+     * @throws IllegalArgumentException if a placeholder without a default cannot be resolved or the properties refer
+     *                                  to themselves
+     */
+    default String resolveExpanded(final String key) {
+        final String value = resolve(key);
+        return value == null ? null : PropertyTemplate.expandValue(this, key, value);
+    }
+
+    /**
+     * Expands the placeholders in the template with the properties of this resolver. The template is {@linkplain
+     * PropertyTemplate#compile(String) compiled} once and cached.
+     *
+     * @param template the template to expand
+     *
+     * @return the expanded template
+     *
+     * @throws IllegalArgumentException if the template is not valid, a placeholder without a default cannot be
+     *                                  resolved or the properties refer to themselves
+     */
+    default String expand(final String template) {
+        return PropertyTemplate.compile(template).expand(this);
+    }
 }
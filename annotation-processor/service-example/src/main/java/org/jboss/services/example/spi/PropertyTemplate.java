@@ -0,0 +1,304 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.spi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled template containing property placeholders. A template is parsed once and can be expanded any number of
+ * times against any {@link PropertyResolver}.
+ * <p/>
+ * The following syntax is supported:
+ * <ul>
+ * <li>{@code ${key}} is replaced with the value of the property</li>
+ * <li>{@code ${key:default}} uses the default if the property cannot be resolved, the default may itself contain
+ * placeholders</li>
+ * <li>{@code ${prefix.${suffix}}} placeholders may be nested in the key</li>
+ * <li>{@code $$} is replaced with a single {@code $}, for example {@code $${key}} expands to {@code ${key}}</li>
+ * </ul>
+ * Values resolved for a placeholder are expanded as well. A property whose value refers back to itself, directly or
+ * indirectly, fails with an {@link IllegalArgumentException} instead of recursing.
+ * <p/>
+ * Templates are immutable and thread-safe. Templates returned from {@link #compile(String)} are cached in a bounded
+ * cache keyed by the template string. Resolved values containing placeholders are parsed each time they are expanded
+ * and never enter the cache, so property values can not evict the templates of the caller.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public final class PropertyTemplate {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final PropertyTemplate[] CACHE = new PropertyTemplate[CACHE_SIZE];
+
+    private static final int TOP = 0;
+    private static final int KEY = 1;
+    private static final int DEFAULT = 2;
+
+    private final String template;
+    private final Node[] nodes;
+    // The expanded value if the template has no placeholders
+    private final String literal;
+
+    private PropertyTemplate(final String template, final Node[] nodes) {
+        this.template = template;
+        this.nodes = nodes;
+        if (nodes.length == 0) {
+            literal = "";
+        } else if (nodes.length == 1 && nodes[0] instanceof Literal) {
+            literal = ((Literal) nodes[0]).value;
+        } else {
+            literal = null;
+        }
+    }
+
+    /**
+     * Compiles the template. Compiled templates are cached, compiling the same template again does not parse it
+     * again unless it has been evicted from the cache.
+     *
+     * @param template the template to compile
+     *
+     * @return the compiled template
+     *
+     * @throws IllegalArgumentException if the template is not valid
+     */
+    public static PropertyTemplate compile(final String template) {
+        int h = template.hashCode();
+        h ^= (h >>> 16);
+        final int index = h & (CACHE_SIZE - 1);
+        final PropertyTemplate cached = CACHE[index];
+        if (cached != null && cached.template.equals(template)) {
+            return cached;
+        }
+        final PropertyTemplate result = parse(template);
+        CACHE[index] = result;
+        return result;
+    }
+
+    /**
+     * Expands the placeholders of the template with the properties of the resolver.
+     *
+     * @param resolver the resolver used to resolve the placeholders
+     *
+     * @return the expanded template
+     *
+     * @throws IllegalArgumentException if a property without a default cannot be resolved or the properties refer to
+     *                                  themselves
+     */
+    public String expand(final PropertyResolver resolver) {
+        if (literal != null) {
+            return literal;
+        }
+        return expand(new Context(resolver));
+    }
+
+    /**
+     * Indicates whether the template contains any placeholders.
+     *
+     * @return {@code true} if the template contains placeholders, otherwise {@code false}
+     */
+    public boolean hasPlaceholders() {
+        return literal == null;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * Expands the value resolved for the key. The key is tracked so a value referring back to the key is detected.
+     */
+    static String expandValue(final PropertyResolver resolver, final String key, final String value) {
+        if (value.indexOf('$') < 0) {
+            return value;
+        }
+        return new Context(resolver).expandValue(key, value);
+    }
+
+    private static PropertyTemplate parse(final String template) {
+        return new PropertyTemplate(template, new Parser(template).parse(TOP));
+    }
+
+    private String expand(final Context context) {
+        if (literal != null) {
+            return literal;
+        }
+        if (nodes.length == 1) {
+            // A single placeholder, the resolved value is returned without copying it
+            return ((Placeholder) nodes[0]).evaluate(context);
+        }
+        final StringBuilder result = new StringBuilder(template.length() + 16);
+        for (Node node : nodes) {
+            node.appendTo(context, result);
+        }
+        return result.toString();
+    }
+
+    private abstract static class Node {
+        abstract void appendTo(Context context, StringBuilder result);
+    }
+
+    private static final class Literal extends Node {
+        final String value;
+
+        private Literal(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        void appendTo(final Context context, final StringBuilder result) {
+            result.append(value);
+        }
+    }
+
+    private static final class Placeholder extends Node {
+        final PropertyTemplate key;
+        final PropertyTemplate defaultValue;
+
+        private Placeholder(final PropertyTemplate key, final PropertyTemplate defaultValue) {
+            this.key = key;
+            this.defaultValue = defaultValue;
+        }
+
+        String evaluate(final Context context) {
+            final String name = key.expand(context);
+            final String value = context.resolver.resolve(name);
+            if (value == null) {
+                if (defaultValue == null) {
+                    throw new IllegalArgumentException(String.format("No value found for property %s", name));
+                }
+                return defaultValue.expand(context);
+            }
+            return context.expandValue(name, value);
+        }
+
+        @Override
+        void appendTo(final Context context, final StringBuilder result) {
+            result.append(evaluate(context));
+        }
+    }
+
+    /**
+     * The state of a single expansion, tracks the keys whose values are being expanded.
+     */
+    private static final class Context {
+        final PropertyResolver resolver;
+        private String[] keys = new String[4];
+        private int depth;
+
+        private Context(final PropertyResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        String expandValue(final String key, final String value) {
+            if (value.indexOf('$') < 0) {
+                return value;
+            }
+            for (int i = 0; i < depth; i++) {
+                if (keys[i].equals(key)) {
+                    final StringBuilder path = new StringBuilder();
+                    for (int j = i; j < depth; j++) {
+                        path.append(keys[j]).append(" -> ");
+                    }
+                    throw new IllegalArgumentException(String.format("The value of property %s refers to itself: %s%s", key, path, key));
+                }
+            }
+            if (depth == keys.length) {
+                keys = Arrays.copyOf(keys, depth * 2);
+            }
+            keys[depth++] = key;
+            try {
+                // Resolved values are not cached, only templates supplied by the caller may occupy the cache
+                return parse(value).expand(this);
+            } finally {
+                keys[--depth] = null;
+            }
+        }
+    }
+
+    private static final class Parser {
+        private final String template;
+        private int pos;
+
+        private Parser(final String template) {
+            this.template = template;
+        }
+
+        Node[] parse(final int mode) {
+            final List<Node> nodes = new ArrayList<>();
+            final StringBuilder literal = new StringBuilder();
+            final int len = template.length();
+            while (pos < len) {
+                final char c = template.charAt(pos);
+                if (c == '$' && pos + 1 < len) {
+                    final char next = template.charAt(pos + 1);
+                    if (next == '$') {
+                        literal.append('$');
+                        pos += 2;
+                        continue;
+                    }
+                    if (next == '{') {
+                        final int start = pos;
+                        pos += 2;
+                        if (literal.length() > 0) {
+                            nodes.add(new Literal(literal.toString()));
+                            literal.setLength(0);
+                        }
+                        final Node[] key = parse(KEY);
+                        if (key.length == 0) {
+                            throw invalid("Empty property key", start);
+                        }
+                        final int keyEnd = pos;
+                        PropertyTemplate defaultValue = null;
+                        if (pos < len && template.charAt(pos) == ':') {
+                            final int defaultStart = ++pos;
+                            final Node[] defaultNodes = parse(DEFAULT);
+                            defaultValue = new PropertyTemplate(template.substring(defaultStart, pos), defaultNodes);
+                        }
+                        if (pos >= len || template.charAt(pos) != '}') {
+                            throw invalid("Unterminated placeholder", start);
+                        }
+                        pos++;
+                        nodes.add(new Placeholder(new PropertyTemplate(template.substring(start + 2, keyEnd), key), defaultValue));
+                        continue;
+                    }
+                }
+                if ((mode == KEY && (c == '}' || c == ':')) || (mode == DEFAULT && c == '}')) {
+                    break;
+                }
+                literal.append(c);
+                pos++;
+            }
+            return finish(nodes, literal);
+        }
+
+        IllegalArgumentException invalid(final String msg, final int index) {
+            return new IllegalArgumentException(String.format("%s at index %d of template %s", msg, index, template));
+        }
+
+        private static Node[] finish(final List<Node> nodes, final StringBuilder literal) {
+            if (literal.length() > 0) {
+                nodes.add(new Literal(literal.toString()));
+            }
+            return nodes.toArray(new Node[nodes.size()]);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.services.example.impl;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.services.example.spi.PropertyResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class CachingPropertyResolverTest {
+
+    @Test
+    public void testCachedUntilInvalidated() {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        values.put("key", "1");
+        final CachingPropertyResolver resolver = new CachingPropertyResolver(mapResolver(values), 16, 0L, TimeUnit.MILLISECONDS, true);
+        Assert.assertEquals("1", resolver.resolve("key"));
+        values.put("key", "2");
+        Assert.assertEquals("1", resolver.resolve("key"));
+        resolver.invalidate("key");
+        Assert.assertEquals("2", resolver.resolve("key"));
+        final CachingPropertyResolver.Statistics statistics = resolver.getStatistics();
+        Assert.assertEquals(1L, statistics.getHitCount());
+        Assert.assertEquals(2L, statistics.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        final CachingPropertyResolver resolver = new CachingPropertyResolver(mapResolver(values), 2, 0L, TimeUnit.MILLISECONDS, true);
+        resolver.resolve("a");
+        resolver.resolve("b");
+        resolver.resolve("a");
+        resolver.resolve("c");
+        Assert.assertEquals(2, resolver.getStatistics().getSize());
+        Assert.assertEquals(1L, resolver.getStatistics().getEvictionCount());
+        values.put("a", "cached");
+        // The least recently used key, b, was evicted so a is still cached
+        Assert.assertNull(resolver.resolve("a"));
+    }
+
+    /**
+     * A value read from the delegate before an invalidation must not be cached after the invalidation.
+     */
+    @Test
+    public void testInvalidationDuringRead() throws Exception {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        values.put("key", "old");
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch invalidated = new CountDownLatch(1);
+        final CachingPropertyResolver resolver = new CachingPropertyResolver(new PropertyResolver() {
+            @Override
+            public String resolve(final String key) {
+                final String result = values.get(key);
+                if (invalidated.getCount() > 0L) {
+                    read.countDown();
+                    try {
+                        invalidated.await(10L, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return result;
+            }
+        }, 16, 0L, TimeUnit.MILLISECONDS, true);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> future = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return resolver.resolve("key");
+                }
+            });
+            Assert.assertTrue(read.await(10L, TimeUnit.SECONDS));
+            values.put("key", "new");
+            resolver.invalidate("key");
+            invalidated.countDown();
+            Assert.assertEquals("old", future.get(10L, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("new", resolver.resolve("key"));
+    }
+
+    private static PropertyResolver mapResolver(final Map<String, String> values) {
+        return new PropertyResolver() {
+            @Override
+            public String resolve(final String key) {
+                return values.get(key);
+            }
+        };
+    }
+}
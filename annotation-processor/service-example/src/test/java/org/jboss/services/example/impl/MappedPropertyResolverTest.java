@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the properties read by the {@link MappedPropertyResolver} with {@link Properties#load(java.io.InputStream)}
+ * for the same file.
+ *
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class MappedPropertyResolverTest {
+
+    private static final String[] FRAGMENTS = {
+            "a", "b", "key", " ", "\t", "\f", "=", ":", "\\", "\\\\", "\n", "\r", "\r\n", "\\u0041",
+            "\\t", "\\n", "\\=", "\\:", "\\ ", "\u00e9", "\\\n", "\\\r\n", "\\\r",
+    };
+    private static final String[] COMMENT_FRAGMENTS = {"#", "!", "\\#", "\n#", "\n!"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSeparators() throws Exception {
+        assertSameAsProperties("a=1\nb:2\nc 3\nd = 4\ne : 5\nf\t6\ng  =  7\nh\f:\f8\n");
+        assertSameAsProperties("a==1\nb::2\nc =:3\nd := 4\ne 5 6\n");
+        assertSameAsProperties("empty\nequals=\ncolon:\nspaces   \nsep =   \n=no key\n:no key either\n");
+        assertSameAsProperties("trailing=value   \nlast=no new line");
+    }
+
+    @Test
+    public void testComments() throws Exception {
+        assertSameAsProperties("# comment\n! comment\na=1\n  # indented comment\nb=#not a comment\n#c=3\n");
+        assertSameAsProperties("# comment \\\nd=4\n! comment \\\r\ne=5\n");
+        assertSameAsProperties("a=1 \\\n# not a comment\nb=2\n");
+    }
+
+    @Test
+    public void testBlankLines() throws Exception {
+        assertSameAsProperties("\n\n  \n\t\na=1\r\n\r\n\rb=2\r\rc=3\n \f \n");
+        assertSameAsProperties("");
+        assertSameAsProperties("   ");
+    }
+
+    @Test
+    public void testContinuations() throws Exception {
+        assertSameAsProperties("a=one \\\n    two \\\n\tthree\nb=4\n");
+        assertSameAsProperties("a=one \\\r\n    two\r\nb=2\r\n");
+        assertSameAsProperties("a=one \\\r    two\rb=2\r");
+        assertSameAsProperties("ke\\\n  y=value\nk2 \\\n  = value\nk3 = \\\n  value\n");
+        assertSameAsProperties("a=\\\n\nb=2\n");
+        assertSameAsProperties("a=even\\\\\nb=odd\\\\\\\nc=3\n");
+        assertSameAsProperties("a=end of file\\");
+        assertSameAsProperties("\\\na=1\n");
+        assertSameAsProperties("\\\n\n  a=1\n");
+        assertSameAsProperties("a=1\n\\");
+        assertSameAsProperties("a=1\n\\\n");
+        assertSameAsProperties("a=1\n\\\r");
+        assertSameAsProperties("a=1\n\\\r\n");
+    }
+
+    @Test
+    public void testCommentAfterContinuation() throws Exception {
+        assumeLineReader();
+        assertSameAsProperties("\\\n# comment\na=1\n");
+        assertSameAsProperties("  \\\r\n  ! comment\\\n\\b=2\n");
+        assertSameAsProperties("# comment \\\n\\ a=1\n");
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        assertSameAsProperties("a\\=b=c\nd\\:e:f\ng\\ h i\nj=\\t\\n\\r\\f\\x\\\\\n");
+        assertSameAsProperties("\\u0041\\u00e9=\\u0042\\u20AC\nu=\\uabcd\n");
+        assertSameAsProperties("\\#a=1\n\\!b=2\nc=\\ leading\n");
+        assertSameAsProperties("latin=\u00e9\u00ff\n\u00e9=key\n");
+    }
+
+    @Test
+    public void testDuplicateKeys() throws Exception {
+        assertSameAsProperties("a=1\nb=2\na=3\na\\\n=4\n");
+    }
+
+    @Test
+    public void testRandomInput() throws Exception {
+        final Random random = new Random(5L);
+        for (int i = 0; i < 2000; i++) {
+            assertSameAsProperties(randomContent(random, false));
+        }
+    }
+
+    @Test
+    public void testRandomInputWithComments() throws Exception {
+        assumeLineReader();
+        final Random random = new Random(7L);
+        for (int i = 0; i < 2000; i++) {
+            assertSameAsProperties(randomContent(random, true));
+        }
+    }
+
+    /**
+     * The line reader of Java 8 does not recognize a comment following a line continuation that has no content and
+     * lets a comment ending with a backslash escape the first character of the next line. The resolver follows the
+     * line reader of Java 9 and later.
+     */
+    private static void assumeLineReader() {
+        Assume.assumeFalse(System.getProperty("java.specification.version").startsWith("1."));
+    }
+
+    private static String randomContent(final Random random, final boolean comments) {
+        final StringBuilder result = new StringBuilder();
+        final int fragments = random.nextInt(40);
+        for (int i = 0; i < fragments; i++) {
+            if (comments && random.nextInt(8) == 0) {
+                result.append(COMMENT_FRAGMENTS[random.nextInt(COMMENT_FRAGMENTS.length)]);
+            } else {
+                result.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+        }
+        return result.toString();
+    }
+
+    private void assertSameAsProperties(final String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.ISO_8859_1);
+        final Properties expected = new Properties();
+        expected.load(new ByteArrayInputStream(bytes));
+        final Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        final MappedPropertyResolver resolver = new MappedPropertyResolver(file);
+        final String message = "Content: " + escape(content);
+        for (String key : expected.stringPropertyNames()) {
+            Assert.assertEquals(message + " Key: " + escape(key), expected.getProperty(key), resolver.resolve(key));
+        }
+        Assert.assertEquals(message, expected.size(), resolver.size());
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t").replace("\f", "\\f");
+    }
+}
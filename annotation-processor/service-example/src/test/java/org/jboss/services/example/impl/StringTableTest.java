@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class StringTableTest {
+
+    @Test
+    public void testMap() {
+        final Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key." + i, "value." + i);
+        }
+        final StringTable table = StringTable.of(map);
+        Assert.assertEquals(map.size(), table.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            Assert.assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+        Assert.assertNull(table.get("key.1000"));
+        Assert.assertEquals(map, table.toMap());
+    }
+
+    @Test
+    public void testCollisions() {
+        // "Aa" and "BB" have the same hash code
+        final Map<String, String> map = new HashMap<>();
+        map.put("Aa", "1");
+        map.put("BB", "2");
+        map.put("AaAa", "3");
+        map.put("BBBB", "4");
+        map.put("AaBB", "5");
+        final StringTable table = StringTable.of(map);
+        Assert.assertEquals(5, table.size());
+        Assert.assertEquals("1", table.get("Aa"));
+        Assert.assertEquals("2", table.get("BB"));
+        Assert.assertEquals("3", table.get("AaAa"));
+        Assert.assertEquals("4", table.get("BBBB"));
+        Assert.assertEquals("5", table.get("AaBB"));
+        Assert.assertNull(table.get("BBAa"));
+    }
+
+    @Test
+    public void testNullEntriesIgnored() {
+        final Map<String, String> map = new HashMap<>();
+        map.put(null, "null key");
+        map.put("null.value", null);
+        map.put("key", "value");
+        final StringTable table = StringTable.of(map);
+        Assert.assertEquals(1, table.size());
+        Assert.assertEquals("value", table.get("key"));
+        Assert.assertNull(table.get("null.value"));
+        Assert.assertEquals(1, table.toMap().size());
+    }
+
+    @Test
+    public void testEmpty() {
+        final StringTable table = StringTable.of(new HashMap<String, String>());
+        Assert.assertEquals(0, table.size());
+        Assert.assertNull(table.get("key"));
+        Assert.assertTrue(table.toMap().isEmpty());
+    }
+
+    @Test
+    public void testProperties() {
+        final Properties defaults = new Properties();
+        defaults.setProperty("default", "from defaults");
+        defaults.setProperty("overridden", "from defaults");
+        final Properties properties = new Properties(defaults);
+        properties.setProperty("key", "value");
+        properties.setProperty("overridden", "from properties");
+        // Only string keys and values are copied
+        properties.put("number", 1);
+        properties.put(2, "number key");
+        final StringTable table = StringTable.of(properties);
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals("value", table.get("key"));
+        Assert.assertEquals("from defaults", table.get("default"));
+        Assert.assertEquals("from properties", table.get("overridden"));
+        Assert.assertNull(table.get("number"));
+        Assert.assertEquals(3, table.toMap().size());
+    }
+}
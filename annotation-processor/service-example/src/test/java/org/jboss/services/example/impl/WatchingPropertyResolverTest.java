@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.services.example.spi.PropertyChangeListener;
+import org.jboss.services.example.spi.PropertyResolver;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class WatchingPropertyResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPrecedence() throws Exception {
+        final Path first = write("first.properties", "a=first\nb=first\n");
+        final Path second = write("second.properties", "b=second\nc=second\n");
+        final Path missing = folder.getRoot().toPath().resolve("missing.properties");
+        try (WatchingPropertyResolver resolver = new WatchingPropertyResolver(Arrays.asList(first, missing, second))) {
+            Assert.assertEquals("first", resolver.resolve("a"));
+            Assert.assertEquals("first", resolver.resolve("b"));
+            Assert.assertEquals("second", resolver.resolve("c"));
+            Assert.assertNull(resolver.resolve("d"));
+            Assert.assertEquals(3, resolver.snapshot().size());
+        }
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        final Path first = write("first.properties", "a=1\nshadowed=first\nremoved=1\n");
+        final Path second = write("second.properties", "shadowed=second\nb=2\n");
+        final WatchingPropertyResolver resolver = new WatchingPropertyResolver(Arrays.asList(first, second));
+        final BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        resolver.addChangeListener(listener(changes));
+        Assert.assertEquals("first", resolver.resolve("shadowed"));
+        // Stop the watcher so only refresh() applies the changes
+        resolver.close();
+
+        write("first.properties", "a=changed\nshadowed=first\nadded=3\n");
+        write("second.properties", "shadowed=changed\nb=2\n");
+        resolver.refresh();
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "removed", "added")), changes.poll());
+        Assert.assertNull(changes.poll());
+        Assert.assertEquals("changed", resolver.resolve("a"));
+        Assert.assertEquals("3", resolver.resolve("added"));
+        Assert.assertNull(resolver.resolve("removed"));
+        Assert.assertEquals("first", resolver.resolve("shadowed"));
+
+        // Removing the key from the first file uncovers the value of the second file
+        write("first.properties", "a=changed\nadded=3\n");
+        resolver.refresh();
+        Assert.assertEquals(Collections.singleton("shadowed"), changes.poll());
+        Assert.assertEquals("changed", resolver.resolve("shadowed"));
+
+        // Nothing changed
+        resolver.refresh();
+        Assert.assertNull(changes.poll());
+
+        Files.delete(first);
+        resolver.refresh();
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a", "added")), changes.poll());
+        Assert.assertEquals(2, resolver.snapshot().size());
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        final Path file = write("watched.properties", "a=1\nb=2\n");
+        try (WatchingPropertyResolver resolver = new WatchingPropertyResolver(Collections.singletonList(file))) {
+            final BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+            resolver.addChangeListener(listener(changes));
+            Assert.assertEquals("1", resolver.resolve("a"));
+
+            write("watched.properties", "a=1\nb=changed\nc=3\n");
+            Assert.assertEquals(new HashSet<>(Arrays.asList("b", "c")), awaitChange(changes));
+            Assert.assertEquals("changed", resolver.resolve("b"));
+            Assert.assertEquals("3", resolver.resolve("c"));
+
+            // Other files in the directory are ignored
+            write("other.properties", "a=other\n");
+            Files.delete(file);
+            Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), awaitChange(changes));
+            Assert.assertNull(resolver.resolve("a"));
+        }
+    }
+
+    private Path write(final String name, final String content) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        return file;
+    }
+
+    private static Set<String> awaitChange(final BlockingQueue<Set<String>> changes) throws InterruptedException {
+        // Some file systems only detect changes periodically
+        final Set<String> result = changes.poll(30L, TimeUnit.SECONDS);
+        Assert.assertNotNull("The change was not detected", result);
+        return result;
+    }
+
+    private static PropertyChangeListener listener(final BlockingQueue<Set<String>> changes) {
+        return new PropertyChangeListener() {
+            @Override
+            public void propertiesChanged(final PropertyResolver resolver, final Set<String> keys) {
+                changes.add(new HashSet<>(keys));
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.spi;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class PropertyResolverTest {
+
+    @Test
+    public void testTypedValues() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("int", " 42 ");
+        values.put("long", "-9000000000");
+        values.put("boolean", " TRUE ");
+        values.put("iso", "PT30S");
+        values.put("seconds", "15s");
+        values.put("millis", "250");
+        final PropertyResolver resolver = mapResolver(values);
+        Assert.assertEquals(42, resolver.resolveInt("int", 0));
+        Assert.assertEquals(-9000000000L, resolver.resolveLong("long", 0L));
+        Assert.assertTrue(resolver.resolveBoolean("boolean", false));
+        Assert.assertEquals(Duration.ofSeconds(30L), resolver.resolveDuration("iso", null));
+        Assert.assertEquals(Duration.ofSeconds(15L), resolver.resolveDuration("seconds", null));
+        Assert.assertEquals(Duration.ofMillis(250L), resolver.resolveDuration("millis", null));
+
+        Assert.assertEquals(7, resolver.resolveInt("missing", 7));
+        Assert.assertEquals(7L, resolver.resolveLong("missing", 7L));
+        Assert.assertTrue(resolver.resolveBoolean("missing", true));
+        Assert.assertSame(Duration.ZERO, resolver.resolveDuration("missing", Duration.ZERO));
+    }
+
+    @Test
+    public void testMalformedValues() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("int", "12a");
+        values.put("long", "");
+        values.put("overflow", "2147483648");
+        values.put("boolean", "yes");
+        values.put("unit", "10 weeks");
+        values.put("duration", "P1X");
+        final PropertyResolver resolver = mapResolver(values);
+        assertInvalid("The value '12a' of property int is not an int", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveInt("int", 0);
+            }
+        });
+        assertInvalid("The value '2147483648' of property overflow is not an int", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveInt("overflow", 0);
+            }
+        });
+        assertInvalid("The value '' of property long is not a long", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveLong("long", 0L);
+            }
+        });
+        assertInvalid("The value 'yes' of property boolean is not a boolean", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveBoolean("boolean", false);
+            }
+        });
+        assertInvalid("The value '10 weeks' of property unit is not a duration", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveDuration("unit", null);
+            }
+        });
+        assertInvalid("The value 'P1X' of property duration is not a duration", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveDuration("duration", null);
+            }
+        });
+        // A failed parse must not leave an entry behind
+        assertInvalid("The value 'P1X' of property duration is not a duration", new Runnable() {
+            @Override
+            public void run() {
+                resolver.resolveDuration("duration", null);
+            }
+        });
+    }
+
+    @Test
+    public void testDurationCache() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("timeout", "PT5M");
+        final PropertyResolver resolver = mapResolver(values);
+        final Duration first = resolver.resolveDuration("timeout", null);
+        Assert.assertEquals(Duration.ofMinutes(5L), first);
+        Assert.assertSame(first, resolver.resolveDuration("timeout", null));
+
+        // The cache is keyed by the value, a changed value is parsed again
+        values.put("timeout", "PT6M");
+        Assert.assertEquals(Duration.ofMinutes(6L), resolver.resolveDuration("timeout", null));
+
+        // An equal value of another property is answered from the cache
+        values.put("other", "PT5M");
+        Assert.assertSame(first, resolver.resolveDuration("other", null));
+    }
+
+    private static void assertInvalid(final String message, final Runnable task) {
+        try {
+            task.run();
+            Assert.fail("Expected the value to be rejected: " + message);
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static PropertyResolver mapResolver(final Map<String, String> values) {
+        return new PropertyResolver() {
+            @Override
+            public String resolve(final String key) {
+                return values.get(key);
+            }
+        };
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ *
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.services.example.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:jperkins@redhat.com">James R. Perkins</a>
+ */
+public class PropertyTemplateTest {
+
+    @Test
+    public void testExpand() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("suffix", "x");
+        values.put("prefix.x", "nested");
+        values.put("value", "${a}-${suffix}");
+        final PropertyResolver resolver = mapResolver(values);
+        Assert.assertEquals("1", resolver.expand("${a}"));
+        Assert.assertEquals("a=1, b=x", resolver.expand("a=${a}, b=${suffix}"));
+        Assert.assertEquals("nested", resolver.expand("${prefix.${suffix}}"));
+        Assert.assertEquals("1-x", resolver.expand("${value}"));
+        Assert.assertEquals("1-x", resolver.resolveExpanded("value"));
+        Assert.assertNull(resolver.resolveExpanded("missing"));
+    }
+
+    @Test
+    public void testDefaults() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "1");
+        final PropertyResolver resolver = mapResolver(values);
+        Assert.assertEquals("def", resolver.expand("${missing:def}"));
+        Assert.assertEquals("", resolver.expand("${missing:}"));
+        Assert.assertEquals("1", resolver.expand("${a:def}"));
+        Assert.assertEquals("1", resolver.expand("${missing:${a}}"));
+        Assert.assertEquals("fallback", resolver.expand("${missing:${other:fallback}}"));
+        Assert.assertEquals("a:b", resolver.expand("${missing:a:b}"));
+    }
+
+    @Test
+    public void testEscapes() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "1");
+        final PropertyResolver resolver = mapResolver(values);
+        Assert.assertEquals("${a}", resolver.expand("$${a}"));
+        Assert.assertEquals("$1", resolver.expand("$$${a}"));
+        Assert.assertEquals("$$", resolver.expand("$$$$"));
+        Assert.assertEquals("cost $5", resolver.expand("cost $5"));
+        Assert.assertEquals("end$", resolver.expand("end$"));
+        Assert.assertFalse(PropertyTemplate.compile("$${a}").hasPlaceholders());
+        Assert.assertTrue(PropertyTemplate.compile("$$${a}").hasPlaceholders());
+    }
+
+    @Test
+    public void testInvalid() {
+        final PropertyResolver resolver = mapResolver(new HashMap<String, String>());
+        assertInvalid("No value found for property missing", resolver, "${missing}");
+        assertInvalid("Unterminated placeholder at index 2 of template a ${b", resolver, "a ${b");
+        assertInvalid("Unterminated placeholder at index 0 of template ${a:b", resolver, "${a:b");
+        assertInvalid("Empty property key at index 0 of template ${}", resolver, "${}");
+        assertInvalid("Empty property key at index 0 of template ${:a}", resolver, "${:a}");
+    }
+
+    @Test
+    public void testCycles() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "${b}");
+        values.put("b", "${a}");
+        values.put("self", "x${self}");
+        values.put("c", "${d:${c}}");
+        final PropertyResolver resolver = mapResolver(values);
+        assertInvalid("The value of property a refers to itself: a -> b -> a", resolver, "${a}");
+        assertInvalid("The value of property b refers to itself: b -> a -> b", resolver, "${b}");
+        assertInvalid("The value of property self refers to itself: self -> self", resolver, "${self}");
+        assertInvalid("The value of property c refers to itself: c -> c", resolver, "${c}");
+        try {
+            resolver.resolveExpanded("a");
+            Assert.fail("Expected the cycle to be detected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("The value of property a refers to itself: a -> b -> a", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRepeatedKeyIsNotCycle() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("b", "${a}${a}");
+        Assert.assertEquals("11-11", mapResolver(values).expand("${b}-${b}"));
+    }
+
+    @Test
+    public void testCompiledTemplatesCached() {
+        final String template = "${cached.template}";
+        final PropertyTemplate compiled = PropertyTemplate.compile(template);
+        Assert.assertSame(compiled, PropertyTemplate.compile(template));
+
+        // A resolved value sharing the cache slot of the template must not evict the template
+        final String value = "${cached.value}" + collision(template);
+        final Map<String, String> values = new HashMap<>();
+        values.put("key", value);
+        values.put("cached.value", "v");
+        final PropertyResolver resolver = mapResolver(values);
+        Assert.assertEquals("v" + collision(template), resolver.resolveExpanded("key"));
+        Assert.assertEquals(value.replace("${cached.value}", "v"), resolver.expand("${key}"));
+        Assert.assertSame(compiled, PropertyTemplate.compile(template));
+    }
+
+    /**
+     * Finds a suffix which places {@code ${cached.value}<suffix>} in the same cache slot as the template.
+     */
+    private static String collision(final String template) {
+        final int slot = slot(template);
+        for (int i = 0; ; i++) {
+            if (slot("${cached.value}" + i) == slot) {
+                return Integer.toString(i);
+            }
+        }
+    }
+
+    private static int slot(final String value) {
+        int h = value.hashCode();
+        h ^= (h >>> 16);
+        return h & 1023;
+    }
+
+    private static void assertInvalid(final String message, final PropertyResolver resolver, final String template) {
+        try {
+            resolver.expand(template);
+            Assert.fail("Expected the template to fail: " + template);
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static PropertyResolver mapResolver(final Map<String, String> values) {
+        return new PropertyResolver() {
+            @Override
+            public String resolve(final String key) {
+                return values.get(key);
+            }
+        };
+    }
+}